@@ -1,9 +1,12 @@
 package fr.weathermap.controllers;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -17,11 +20,18 @@ public class InterestPointController {
 
     private int RADIUS = 1000; // en mètres
 
+    // Largeurs de couloir acceptées (mètres) : en-deçà, le nombre de cercles et de cellules explose
+    private static final int MIN_BUFFER = 50;
+    private static final int MAX_BUFFER = 5000;
+
     @Autowired
     private InterestPointService interestPointService;
 
+    // Présent (à "true") quand une partie des cellules n'a pas pu être chargée avant l'échéance
+    private static final String PARTIAL_HEADER = "X-Partial-Results";
+
     @GetMapping("/get")
-    public Map<String,List<Map<String, Object>>> getInterestPoints(
+    public CompletableFuture<ResponseEntity<Map<String, List<Map<String, Object>>>>> getInterestPoints(
             @RequestParam List<Double> lat,
             @RequestParam List<Double> lng) {
         
@@ -30,8 +40,34 @@ public class InterestPointController {
         if (lat.size() != lng.size()) {
             throw new IllegalArgumentException("Les listes de latitudes et longitudes doivent avoir la même taille");
         }
-        Map<String, List<Map<String, Object>>> pois = interestPointService.getAllSuggestions(lat, lng, RADIUS);
-        System.out.println("Je suis a la fin de la réponse");
-        return pois;
+        return interestPointService.getAllSuggestions(lat, lng, RADIUS).thenApply(InterestPointController::toResponse);
+    }
+
+    /**
+     * Points d'intérêt le long d'un itinéraire (lat/lng = points successifs du tracé),
+     * dédoublonnés et triés par distance parcourue.
+     */
+    @GetMapping("/corridor")
+    public CompletableFuture<ResponseEntity<?>> getCorridorInterestPoints(
+            @RequestParam List<Double> lat,
+            @RequestParam List<Double> lng,
+            @RequestParam(required = false) Integer buffer) {
+
+        if (lat.size() != lng.size()) {
+            throw new IllegalArgumentException("Les listes de latitudes et longitudes doivent avoir la même taille");
+        }
+        if (buffer != null && (buffer < MIN_BUFFER || buffer > MAX_BUFFER)) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("error", "buffer doit être compris entre " + MIN_BUFFER + " et " + MAX_BUFFER + " mètres");
+            return CompletableFuture.completedFuture(ResponseEntity.status(400).body(error));
+        }
+        return interestPointService.getCorridorSuggestions(lat, lng, buffer != null ? buffer : RADIUS)
+                .<ResponseEntity<?>>thenApply(InterestPointController::toResponse);
+    }
+
+    private static ResponseEntity<Map<String, List<Map<String, Object>>>> toResponse(InterestPointService.Suggestions s) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (s.partial()) response.header(PARTIAL_HEADER, "true");
+        return response.body(s.pois());
     }
 }
@@ -4,8 +4,17 @@ import fr.weathermap.services.RoutingService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 @RestController
 @RequestMapping("/api/routing")
@@ -14,6 +23,20 @@ public class RoutingController {
 	@Autowired
 	private RoutingService routingService;
 
+	// Calculs d'itinéraires diffusés en continu (hors des threads du serveur)
+	private static final int STREAM_THREADS = 4;
+	private static final long STREAM_TIMEOUT_MS = 120_000L;
+	private final ExecutorService streamExecutor = Executors.newFixedThreadPool(STREAM_THREADS, r -> {
+		Thread t = new Thread(r, "route-stream");
+		t.setDaemon(true);
+		return t;
+	});
+
+	@PreDestroy
+	void shutdown() {
+		streamExecutor.shutdownNow();
+	}
+
 	@GetMapping("/weather-aware")
 	public Map<String, Object> getWeatherAwareRoute(
 			@RequestParam double startLat,
@@ -31,4 +54,70 @@ public class RoutingController {
 		}
 		return result;
 	}
+
+	/**
+	 * Temps et distance passés sous la pluie, par frame radar, sur l'itinéraire le plus
+	 * rapide : permet de savoir si un itinéraire d'évitement vaut la peine d'être calculé.
+	 */
+	@GetMapping("/rain-exposure")
+	public Map<String, Object> getRainExposure(
+			@RequestParam double startLat,
+			@RequestParam double startLng,
+			@RequestParam double endLat,
+			@RequestParam double endLng) {
+
+		Map<String, Object> result = routingService.evaluateRainExposure(startLat, startLng, endLat, endLng);
+		if (result.containsKey("error")) {
+			System.out.println("Error: " + result.get("error"));
+		}
+		return result;
+	}
+
+	/**
+	 * Version diffusée (Server-Sent Events) du mode dynamique : un événement "step"
+	 * ({rain_polygons, route}) par étape dès qu'elle est calculée, puis un événement
+	 * "summary" ({duration, distance, steps, error?}) qui clôt le flux.
+	 */
+	@GetMapping(value = "/weather-aware/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public SseEmitter streamWeatherAwareRoute(
+			@RequestParam double startLat,
+			@RequestParam double startLng,
+			@RequestParam double endLat,
+			@RequestParam double endLng,
+			@RequestParam(required = false, defaultValue = "") List<String> avoidConditions) {
+
+		SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MS);
+		streamExecutor.execute(() -> {
+			try {
+				Map<String, Object> result = routingService.calculateWeatherAwareRouteDynamic(
+						startLat, startLng, endLat, endLng, avoidConditions,
+						step -> send(emitter, "step", step));
+
+				Map<String, Object> summary = new HashMap<>();
+				summary.put("duration", result.get("duration"));
+				summary.put("distance", result.get("distance"));
+				summary.put("steps", result.get("steps") instanceof List<?> steps ? steps.size() : 0);
+				if (result.containsKey("error")) {
+					System.out.println("Error: " + result.get("error"));
+					summary.put("error", result.get("error"));
+				}
+				send(emitter, "summary", summary);
+				emitter.complete();
+			} catch (UncheckedIOException e) {
+				// Client déconnecté : on abandonne le calcul
+				emitter.completeWithError(e.getCause());
+			} catch (Exception e) {
+				emitter.completeWithError(e);
+			}
+		});
+		return emitter;
+	}
+
+	private static void send(SseEmitter emitter, String name, Object data) {
+		try {
+			emitter.send(SseEmitter.event().name(name).data(data, MediaType.APPLICATION_JSON));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
 }
@@ -1,18 +1,37 @@
 package fr.weathermap.controllers;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
 import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fr.weathermap.services.ForecastGridService;
+import fr.weathermap.services.OpenMeteoForecast;
+import fr.weathermap.services.OpenMeteoService;
+import fr.weathermap.services.RainFrameTimeline;
 import fr.weathermap.services.RainViewerRadarPolygonService;
 import fr.weathermap.services.RainViewerRadarPolygonService.TimeMode;
 import fr.weathermap.utils.AreaUtils;
+import fr.weathermap.utils.ByteBufferResource;
+import fr.weathermap.utils.GeoUtils;
+import fr.weathermap.utils.MvtEncoder;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -21,13 +40,21 @@ import java.util.Map;
 @RequestMapping("/api/weather")
 public class WeatherController {
 
-	private final RestTemplate restTemplate;
+	private final OpenMeteoService openMeteoService;
+	private final ForecastGridService forecastGridService;
 
 	@Autowired
 	private RainViewerRadarPolygonService rainService;
 
-	public WeatherController(RestTemplate restTemplate) {
-		this.restTemplate = restTemplate;
+	private static final ObjectMapper JSON = new ObjectMapper();
+
+	// Nombre maximal de points (ou d'échantillons) d'une requête de prévisions groupée
+	@Value("${weather.batch.max-locations:100}")
+	private int maxBatchLocations = 100;
+
+	public WeatherController(OpenMeteoService openMeteoService, ForecastGridService forecastGridService) {
+		this.openMeteoService = openMeteoService;
+		this.forecastGridService = forecastGridService;
 	}
 
 	@GetMapping("/current")
@@ -35,37 +62,37 @@ public class WeatherController {
 			@RequestParam double lat,
 			@RequestParam double lng) {
 
-		String url = "https://api.open-meteo.com/v1/forecast"
-				+ "?latitude=" + lat
-				+ "&longitude=" + lng
-				+ "&current=temperature_2m,apparent_temperature,relative_humidity_2m,wind_speed_10m,rain,precipitation,cloud_cover,visibility";
-		Map response = restTemplate.getForObject(url, Map.class);
+		// Grille régionale préchargée si le point est couvert, sinon Open-Meteo (avec cache)
+		OpenMeteoForecast response = forecastGridService.current(lat, lng);
+		if (response == null) {
+			response = openMeteoService.fetchCurrent(lat, lng);
+		}
 
 		// On prépare un JSON simplifié
 		Map<String, Object> filtered = new HashMap<>();
 		filtered.put("latitude", lat);
 		filtered.put("longitude", lng);
 
-		if (response != null && response.containsKey("current") && response.containsKey("current_units")) {
-			Map current = (Map) response.get("current");
-			Map current_units = (Map) response.get("current_units");
-
-			filtered.put("temperature", current.get("temperature_2m"));
-			filtered.put("temperature_unit", current_units.get("temperature_2m"));
-			filtered.put("apparent_temperature", current.get("apparent_temperature"));
-			filtered.put("apparent_temperature_unit", current_units.get("apparent_temperature"));
-			filtered.put("humidity", current.get("relative_humidity_2m"));
-			filtered.put("humidity_unit", current_units.get("relative_humidity_2m"));
-			filtered.put("windSpeed", current.get("wind_speed_10m"));
-			filtered.put("windSpeed_unit", current_units.get("wind_speed_10m"));
-			filtered.put("rain", current.get("rain"));
-			filtered.put("rain_unit", current_units.get("rain"));
-			filtered.put("precipitation", current.get("precipitation"));
-			filtered.put("precipitation_unit", current_units.get("precipitation"));
-			filtered.put("cloudCover", current.get("cloud_cover"));
-			filtered.put("cloudCover_unit", current_units.get("cloud_cover"));
-			filtered.put("visibility", current.get("visibility"));
-			filtered.put("visibility_unit", current_units.get("visibility"));
+		if (response != null && response.current() != null && response.currentUnits() != null) {
+			OpenMeteoForecast.Current current = response.current();
+			OpenMeteoForecast.Units current_units = response.currentUnits();
+
+			filtered.put("temperature", current.temperature());
+			filtered.put("temperature_unit", current_units.temperature());
+			filtered.put("apparent_temperature", current.apparentTemperature());
+			filtered.put("apparent_temperature_unit", current_units.apparentTemperature());
+			filtered.put("humidity", current.humidity());
+			filtered.put("humidity_unit", current_units.humidity());
+			filtered.put("windSpeed", current.windSpeed());
+			filtered.put("windSpeed_unit", current_units.windSpeed());
+			filtered.put("rain", current.rain());
+			filtered.put("rain_unit", current_units.rain());
+			filtered.put("precipitation", current.precipitation());
+			filtered.put("precipitation_unit", current_units.precipitation());
+			filtered.put("cloudCover", current.cloudCover());
+			filtered.put("cloudCover_unit", current_units.cloudCover());
+			filtered.put("visibility", current.visibility());
+			filtered.put("visibility_unit", current_units.visibility());
 		} else {
 			filtered.put("error", "Impossible de lire la réponse de l'API");
 		}
@@ -116,38 +143,194 @@ public class WeatherController {
 			return response;
 		}
 		response.put("polygons", AreaUtils.reverseLonLat(polygonsLonLat));
+		response.put("age", rainService.catalogAgeSeconds());
 		return response;
 	}
 
+	/**
+	 * Timeline complète (frames passées et prévisions) de la zone en JSON délimité par
+	 * des retours à la ligne : une ligne {"frameTime", "polygons", "age"} par frame, écrite dès
+	 * que la frame est calculée. Les frames étant calculées en parallèle, elles arrivent
+	 * dans l'ordre d'achèvement ; le client les ordonne par frameTime. En cas d'échec,
+	 * la dernière ligne est {"error": ...}.
+	 */
+	@GetMapping(value = "/rain/zone/frames", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	public ResponseEntity<StreamingResponseBody> streamRainZoneFrames(
+			@RequestParam double startLat,
+			@RequestParam double startLng,
+			@RequestParam double endLat,
+			@RequestParam double endLng) {
+		Map<String, Double> expandedArea = AreaUtils.expandedArea(startLat, startLng, endLat, endLng);
+
+		StreamingResponseBody body = out -> {
+			try {
+				rainService.streamAllRainPolygons(expandedArea.get("latMax"), expandedArea.get("lonMin"),
+						expandedArea.get("latMin"), expandedArea.get("lonMax"), result -> {
+							Map<String, Object> line = new HashMap<>();
+							line.put("frameTime", result.frameTime);
+							line.put("polygons", AreaUtils.reverseLonLat(result.getSimplifiedPolygons()));
+							line.put("age", rainService.catalogAgeSeconds());
+							writeLine(out, line);
+						});
+			} catch (UncheckedIOException e) {
+				// Client déconnecté : les frames restantes ont été annulées
+				throw e.getCause();
+			} catch (Exception e) {
+				if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+				writeLine(out, Map.of("error", "Failed to fetch rain polygons: " + e.getMessage()));
+			}
+		};
+		return ResponseEntity.ok()
+				.contentType(MediaType.APPLICATION_NDJSON)
+				.body(body);
+	}
+
+	/**
+	 * Timeline complète de la zone sous forme de masques radar encodés en différences
+	 * (voir {@link RainFrameTimeline}) : bien plus compacte que les polygones de chaque
+	 * frame pour une animation. Frames dans l'ordre chronologique.
+	 */
+	@GetMapping("/rain/zone/timeline")
+	public ResponseEntity<Object> getRainZoneTimeline(
+			@RequestParam double startLat,
+			@RequestParam double startLng,
+			@RequestParam double endLat,
+			@RequestParam double endLng) {
+		Map<String, Double> expandedArea = AreaUtils.expandedArea(startLat, startLng, endLat, endLng);
+		try {
+			List<RainViewerRadarPolygonService.RainPolygonsResult> frames = rainService.fetchAllRainPolygons(
+					expandedArea.get("latMax"), expandedArea.get("lonMin"),
+					expandedArea.get("latMin"), expandedArea.get("lonMax"));
+			return ResponseEntity.ok(RainFrameTimeline.encode(frames, rainService.catalogAgeSeconds()));
+		} catch (Exception e) {
+			if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+			return ResponseEntity.ok(Map.of("error", "Failed to fetch rain polygons: " + e.getMessage()));
+		}
+	}
+
+	private static void writeLine(OutputStream out, Object value) {
+		try {
+			out.write(JSON.writeValueAsBytes(value));
+			out.write('\n');
+			out.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
 	@GetMapping("/forecast/12h")
 	public Map<String, Object> getNext12HoursForecast(
 			@RequestParam double lat,
 			@RequestParam double lng) {
 
-		// On demande à l'API Open-Meteo les prévisions horaires
-		String url = "https://api.open-meteo.com/v1/forecast"
-				+ "?latitude=" + lat
-				+ "&longitude=" + lng
-				+ "&hourly=temperature_2m,apparent_temperature,precipitation"
-				+ "&forecast_hours=12";
+		// Grille régionale préchargée si le point est couvert, sinon Open-Meteo (mis en cache par maille)
+		OpenMeteoForecast response = forecastGridService.hourly(lat, lng);
+		if (response == null) {
+			response = openMeteoService.fetchHourly(lat, lng);
+		}
+		return filterHourly(lat, lng, response);
+	}
+
+	/**
+	 * Prévisions 12h pour plusieurs points en un ou deux appels Open-Meteo.
+	 *
+	 * Corps accepté :
+	 * - {"points": [{"lat": .., "lng": .., "eta": <secondes, optionnel>}, ...]}
+	 * - ou {"route": [[lat, lng], ...], "duration": <secondes>, "samples": <nb, défaut 10>}
+	 *   : le tracé est échantillonné régulièrement, l'ETA de chaque échantillon est
+	 *   proportionnelle à la distance parcourue.
+	 *
+	 * Chaque prévision porte en plus, si une ETA est connue, les valeurs de l'heure d'arrivée ("at_eta").
+	 * Le nombre de points (ou d'échantillons) est limité à weather.batch.max-locations ; une requête
+	 * invalide reçoit une 400 {"error": ...}.
+	 */
+	@PostMapping("/forecast/batch")
+	public ResponseEntity<Map<String, Object>> getBatchForecast(@RequestBody BatchForecastRequest request) {
+		List<BatchPoint> points;
+		try {
+			points = request.resolvePoints(maxBatchLocations);
+		} catch (IllegalArgumentException e) {
+			Map<String, Object> error = new HashMap<>();
+			error.put("error", e.getMessage());
+			return ResponseEntity.status(400).body(error);
+		}
+
+		List<double[]> coords = new ArrayList<>(points.size());
+		for (BatchPoint p : points) {
+			coords.add(new double[]{p.lat(), p.lng()});
+		}
+		List<OpenMeteoForecast> responses = openMeteoService.fetchHourlyBatch(coords);
+
+		List<Map<String, Object>> forecasts = new ArrayList<>(points.size());
+		for (int i = 0; i < points.size(); i++) {
+			BatchPoint p = points.get(i);
+			Map<String, Object> forecast = filterHourly(p.lat(), p.lng(), responses.get(i));
+			if (p.eta() != null && !forecast.containsKey("error")) {
+				forecast.put("eta", p.eta());
+				forecast.put("at_eta", valuesAtEta(forecast, p.eta()));
+			}
+			forecasts.add(forecast);
+		}
+
+		Map<String, Object> result = new HashMap<>();
+		result.put("forecasts", forecasts);
+		return ResponseEntity.ok(result);
+	}
 
-		Map response = restTemplate.getForObject(url, Map.class);
+	public record BatchPoint(double lat, double lng, Double eta) {
+	}
+
+	public record BatchForecastRequest(List<BatchPoint> points,
+			List<List<Double>> route,
+			Double duration,
+			Integer samples) {
+
+		private static final int DEFAULT_SAMPLES = 10;
+
+		List<BatchPoint> resolvePoints(int maxPoints) {
+			if (points != null && !points.isEmpty()) {
+				if (points.size() > maxPoints) {
+					throw new IllegalArgumentException("Trop de points (" + points.size() + "), maximum " + maxPoints);
+				}
+				return points;
+			}
+			if (route == null || route.isEmpty()) {
+				throw new IllegalArgumentException("Il faut fournir 'points' ou 'route'");
+			}
+			if (samples != null && samples > maxPoints) {
+				throw new IllegalArgumentException("Trop d'échantillons (" + samples + "), maximum " + maxPoints);
+			}
+			int count = (samples != null && samples > 0) ? samples : DEFAULT_SAMPLES;
+			count = Math.min(count, maxPoints);
+			List<List<Double>> sampled = GeoUtils.samplePolyline(route, count);
+			List<BatchPoint> out = new ArrayList<>(sampled.size());
+			for (int i = 0; i < sampled.size(); i++) {
+				Double eta = null;
+				if (duration != null) {
+					eta = (sampled.size() == 1) ? 0.0 : duration * i / (sampled.size() - 1);
+				}
+				out.add(new BatchPoint(sampled.get(i).get(0), sampled.get(i).get(1), eta));
+			}
+			return out;
+		}
+	}
 
+	private Map<String, Object> filterHourly(double lat, double lng, OpenMeteoForecast response) {
 		Map<String, Object> result = new HashMap<>();
 		result.put("latitude", lat);
 		result.put("longitude", lng);
 
-		if (response != null && response.containsKey("hourly") && response.containsKey("hourly_units")) {
-			Map hourly = (Map) response.get("hourly");
-			Map hourly_units = (Map) response.get("hourly_units");
+		if (response != null && response.hourly() != null && response.hourlyUnits() != null) {
+			OpenMeteoForecast.Hourly hourly = response.hourly();
+			OpenMeteoForecast.Units hourly_units = response.hourlyUnits();
 
 			// On récupère seulement les heures, températures et précipitations
-			result.put("time", hourly.get("time"));
-			result.put("temperature", hourly.get("temperature_2m"));
-			result.put("temperature_unit", hourly_units.get("temperature_2m"));
-			result.put("apparennt_temperature", hourly.get("apparent_temperature"));
-			result.put("precipitation", hourly.get("precipitation"));
-			result.put("precipitation_unit", hourly_units.get("precipitation"));
+			result.put("time", hourly.time());
+			result.put("temperature", hourly.temperature());
+			result.put("temperature_unit", hourly_units.temperature());
+			result.put("apparennt_temperature", hourly.apparentTemperature());
+			result.put("precipitation", hourly.precipitation());
+			result.put("precipitation_unit", hourly_units.precipitation());
 		} else {
 			result.put("error", "Impossible de lire la réponse de l'API");
 		}
@@ -155,8 +338,117 @@ public class WeatherController {
 		return result;
 	}
 
+	// Valeurs de l'heure de prévision qui contient l'instant d'arrivée (heures GMT d'Open-Meteo)
+	private Map<String, Object> valuesAtEta(Map<String, Object> forecast, double etaSeconds) {
+		Map<String, Object> at = new HashMap<>();
+		List<?> times = (List<?>) forecast.get("time");
+		if (times == null || times.isEmpty()) return at;
+
+		long first = LocalDateTime.parse(String.valueOf(times.get(0))).toEpochSecond(ZoneOffset.UTC);
+		long arrival = System.currentTimeMillis() / 1000 + (long) etaSeconds;
+		int index = (int) Math.floorDiv(arrival - first, 3600L);
+		index = Math.max(0, Math.min(times.size() - 1, index));
+
+		at.put("time", times.get(index));
+		at.put("temperature", valueAt(forecast.get("temperature"), index));
+		at.put("apparent_temperature", valueAt(forecast.get("apparennt_temperature"), index));
+		at.put("precipitation", valueAt(forecast.get("precipitation"), index));
+		return at;
+	}
+
+	private static Object valueAt(Object series, int index) {
+		if (!(series instanceof List)) return null;
+		List<?> list = (List<?>) series;
+		return (index < list.size()) ? list.get(index) : null;
+	}
+
+	@GetMapping("/rain/frames")
+	public ResponseEntity<Object> getRainFrameTimes() {
+		try {
+			return ResponseEntity.ok(rainService.listFrameTimes());
+		} catch (Exception e) {
+			if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+			return ResponseEntity.ok(Map.of("error", "Failed to fetch rain frames: " + e.getMessage()));
+		}
+	}
+
+	/**
+	 * Tuile vectorielle (MVT) des zones de pluie d'une frame donnée (voir /rain/frames).
+	 */
+	@GetMapping(value = "/rain/frames/{frameTime}/{z}/{x}/{y}.mvt", produces = MvtEncoder.CONTENT_TYPE)
+	public ResponseEntity<byte[]> getRainVectorTile(
+			@PathVariable long frameTime,
+			@PathVariable int z,
+			@PathVariable int x,
+			@PathVariable int y,
+			WebRequest request) {
+
+		try {
+			RainViewerRadarPolygonService.FrameTileRef ref = rainService.resolveFrameTile(frameTime, z, x, y);
+			if (ref == null) {
+				return ResponseEntity.status(404).build();
+			}
+			String etag = ref.etag(rainService.vectorTileVariant());
+			if (request.checkNotModified(etag)) {
+				return notModified(etag, ref);
+			}
+			byte[] data = rainService.fetchFrameVectorTile(ref);
+			return ResponseEntity.ok().eTag(etag).cacheControl(frameCacheControl(ref)).body(data);
+		} catch (Exception e) {
+			return ResponseEntity.status(502).build();
+		}
+	}
+
+	/**
+	 * Tuile PNG RainViewer d'une frame donnée (voir /rain/frames). Son adresse désigne un
+	 * contenu fixe : ETag fort, If-None-Match -> 304 sans téléchargement ni lecture disque,
+	 * et mise en cache immuable pour les frames observées.
+	 */
+	@GetMapping(value = "/rain/frames/{frameTime}/{z}/{x}/{y}.png", produces = MediaType.IMAGE_PNG_VALUE)
+	public ResponseEntity<Resource> getRainFrameTile(
+			@PathVariable long frameTime,
+			@PathVariable int z,
+			@PathVariable int x,
+			@PathVariable int y,
+			@RequestParam(required = false) Integer tileSize,
+			@RequestParam(required = false) Integer colorScheme,
+			@RequestParam(required = false) Integer smooth,
+			@RequestParam(required = false) Integer snow,
+			WebRequest request) {
+
+		try {
+			RainViewerRadarPolygonService.FrameTileRef ref = rainService.resolveFrameTile(frameTime, z, x, y);
+			if (ref == null) {
+				return ResponseEntity.status(404).build();
+			}
+			RainViewerRadarPolygonService.TileStyle style = RainViewerRadarPolygonService.TileStyle.of(tileSize, colorScheme, smooth, snow);
+			String etag = ref.etag(style.key());
+			if (request.checkNotModified(etag)) {
+				return notModified(etag, ref);
+			}
+			ByteBuffer data = rainService.fetchFrameTile(ref, style);
+			if (data == null) {
+				return ResponseEntity.status(404).build();
+			}
+			return ResponseEntity.ok().eTag(etag).cacheControl(frameCacheControl(ref)).body(new ByteBufferResource(data));
+		} catch (Exception e) {
+			return ResponseEntity.status(502).build();
+		}
+	}
+
+	// Frame observée : contenu définitif. Prévision : un même horodatage peut être recalculé, on revalide via l'ETag.
+	private static CacheControl frameCacheControl(RainViewerRadarPolygonService.FrameTileRef ref) {
+		return ref.past()
+				? CacheControl.maxAge(java.time.Duration.ofDays(365)).cachePublic().immutable()
+				: CacheControl.maxAge(java.time.Duration.ofMinutes(5)).cachePublic();
+	}
+
+	private static <T> ResponseEntity<T> notModified(String etag, RainViewerRadarPolygonService.FrameTileRef ref) {
+		return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(frameCacheControl(ref)).build();
+	}
+
 	@GetMapping(value = "/rain/tile/oldest/{z}/{x}/{y}.png", produces = MediaType.IMAGE_PNG_VALUE)
-	public ResponseEntity<byte[]> getOldestPastRainTile(
+	public ResponseEntity<Resource> getOldestPastRainTile(
 			@PathVariable int z,
 			@PathVariable int x,
 			@PathVariable int y,
@@ -166,13 +458,13 @@ public class WeatherController {
 			@RequestParam(required = false) Integer snow) {
 
 		try {
-			byte[] data = rainService.fetchOldestPastTile(z, x, y, tileSize, colorScheme, smooth, snow);
+			ByteBuffer data = rainService.fetchOldestPastTile(z, x, y, tileSize, colorScheme, smooth, snow);
 			if (data == null) {
 				return ResponseEntity.status(404).build();
 			}
 			HttpHeaders headers = new HttpHeaders();
 			headers.setCacheControl(CacheControl.maxAge(java.time.Duration.ofMinutes(5)).cachePublic());
-			return new ResponseEntity<>(data, headers, HttpStatus.OK);
+			return new ResponseEntity<>(new ByteBufferResource(data), headers, HttpStatus.OK);
 		} catch (Exception e) {
 			return ResponseEntity.status(500).build();
 		}
@@ -0,0 +1,280 @@
+package fr.weathermap.services;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Préchargement périodique d'une grille régionale de prévisions Open-Meteo.
+ *
+ * Pour chaque région configurée, les variables utilisées par WeatherController sont
+ * téléchargées sur une grille régulière (appels groupés) et conservées dans des
+ * tableaux de float. Les requêtes /current et /forecast/12h tombant dans une région
+ * sont alors servies par interpolation bilinéaire, sans aucun appel réseau.
+ *
+ * Désactivé par défaut (weather.grid.enabled).
+ */
+@Service
+public class ForecastGridService {
+
+    private final OpenMeteoService openMeteoService;
+    private final boolean enabled;
+    private final double step;
+    private final int refreshMinutes;
+    private final List<double[]> regions;
+
+    // Instantané courant, une grille par région, null si jamais chargée (remplacé d'un bloc à chaque rafraîchissement)
+    private volatile List<Grid> grids = List.of();
+
+    public ForecastGridService(OpenMeteoService openMeteoService,
+                               @Value("${weather.grid.enabled:false}") boolean enabled,
+                               @Value("${weather.grid.regions:}") String regions,
+                               @Value("${weather.grid.step:0.5}") double step,
+                               @Value("${weather.grid.refresh-minutes:30}") int refreshMinutes) {
+        this.openMeteoService = openMeteoService;
+        this.enabled = enabled;
+        this.step = step;
+        this.refreshMinutes = refreshMinutes;
+        this.regions = parseRegions(regions);
+    }
+
+    /* ==================== GRILLE ==================== */
+
+    static final class Grid {
+        final double latMin, lonMin, step;
+        final int rows, cols;
+        final long fetchedAt;
+
+        final String currentTime;
+        final OpenMeteoForecast.Units currentUnits;
+        final float[][] current;        // [variable][noeud], variables dans l'ordre de CURRENT_VARIABLES
+
+        final String[] hourlyTimes;
+        final long firstHourEpoch;      // UNIX seconds de hourlyTimes[0]
+        final OpenMeteoForecast.Units hourlyUnits;
+        final float[][] hourly;         // [variable][heure * noeuds + noeud], ordre de HOURLY_VARIABLES
+
+        Grid(double latMin, double lonMin, double step, int rows, int cols, List<OpenMeteoForecast> nodes) {
+            this.latMin = latMin;
+            this.lonMin = lonMin;
+            this.step = step;
+            this.rows = rows;
+            this.cols = cols;
+            this.fetchedAt = System.currentTimeMillis();
+
+            int n = rows * cols;
+            OpenMeteoForecast sample = null;
+            for (OpenMeteoForecast f : nodes) {
+                if (f != null && f.current() != null && f.hourly() != null && f.hourly().time() != null) {
+                    sample = f;
+                    break;
+                }
+            }
+            if (sample == null) throw new IllegalStateException("Aucune donnée exploitable pour la grille");
+
+            this.currentTime = sample.current().time();
+            this.currentUnits = sample.currentUnits();
+            this.hourlyUnits = sample.hourlyUnits();
+            List<String> times = sample.hourly().time();
+            this.hourlyTimes = times.toArray(new String[0]);
+            this.firstHourEpoch = hourlyTimes.length > 0
+                    ? LocalDateTime.parse(hourlyTimes[0]).toEpochSecond(ZoneOffset.UTC) : 0L;
+
+            int hours = hourlyTimes.length;
+            this.current = new float[CURRENT_VAR_COUNT][n];
+            this.hourly = new float[HOURLY_VAR_COUNT][hours * n];
+            for (int node = 0; node < n; node++) {
+                OpenMeteoForecast f = node < nodes.size() ? nodes.get(node) : null;
+                OpenMeteoForecast.Current cur = (f != null) ? f.current() : null;
+                for (int v = 0; v < CURRENT_VAR_COUNT; v++) {
+                    current[v][node] = toFloat(cur != null ? currentValue(cur, v) : null);
+                }
+                OpenMeteoForecast.Hourly hr = (f != null) ? f.hourly() : null;
+                for (int v = 0; v < HOURLY_VAR_COUNT; v++) {
+                    List<Double> values = (hr != null) ? hourlySeries(hr, v) : null;
+                    for (int h = 0; h < hours; h++) {
+                        hourly[v][h * n + node] = (values != null && h < values.size())
+                                ? toFloat(values.get(h)) : Float.NaN;
+                    }
+                }
+            }
+        }
+
+        boolean covers(double lat, double lng) {
+            return lat >= latMin && lng >= lonMin
+                    && lat <= latMin + (rows - 1) * step
+                    && lng <= lonMin + (cols - 1) * step;
+        }
+
+        // Interpolation bilinéaire dans values[offset .. offset + rows*cols[
+        double interpolate(float[] values, int offset, double lat, double lng) {
+            double fy = (lat - latMin) / step;
+            double fx = (lng - lonMin) / step;
+            int r0 = Math.min((int) Math.floor(fy), rows - 2);
+            int c0 = Math.min((int) Math.floor(fx), cols - 2);
+            double ty = fy - r0;
+            double tx = fx - c0;
+            float a = values[offset + r0 * cols + c0];
+            float b = values[offset + r0 * cols + c0 + 1];
+            float c = values[offset + (r0 + 1) * cols + c0];
+            float d = values[offset + (r0 + 1) * cols + c0 + 1];
+            return (1 - ty) * ((1 - tx) * a + tx * b) + ty * ((1 - tx) * c + tx * d);
+        }
+
+        private static float toFloat(Double d) {
+            return (d != null) ? d.floatValue() : Float.NaN;
+        }
+    }
+
+    private static final int CURRENT_VAR_COUNT = 8;
+    private static final int HOURLY_VAR_COUNT = 3;
+
+    private static Double currentValue(OpenMeteoForecast.Current c, int v) {
+        switch (v) {
+            case 0: return c.temperature();
+            case 1: return c.apparentTemperature();
+            case 2: return c.humidity();
+            case 3: return c.windSpeed();
+            case 4: return c.rain();
+            case 5: return c.precipitation();
+            case 6: return c.cloudCover();
+            default: return c.visibility();
+        }
+    }
+
+    private static List<Double> hourlySeries(OpenMeteoForecast.Hourly h, int v) {
+        switch (v) {
+            case 0: return h.temperature();
+            case 1: return h.apparentTemperature();
+            default: return h.precipitation();
+        }
+    }
+
+    /* ==================== RAFRAÎCHISSEMENT ==================== */
+
+    @Scheduled(fixedDelayString = "${weather.grid.refresh-minutes:30}", timeUnit = TimeUnit.MINUTES)
+    public void refresh() {
+        if (!enabled || regions.isEmpty()) return;
+
+        // Marge d'heures pour couvrir 12h pleines jusqu'au prochain rafraîchissement
+        int hours = OpenMeteoService.FORECAST_HOURS + (refreshMinutes + 59) / 60 + 1;
+        String query = "&current=" + OpenMeteoService.CURRENT_VARIABLES
+                + "&hourly=" + OpenMeteoService.HOURLY_VARIABLES
+                + "&forecast_hours=" + hours;
+
+        List<Grid> previous = grids;
+        List<Grid> next = new ArrayList<>(regions.size());
+        for (int i = 0; i < regions.size(); i++) {
+            double[] r = regions.get(i);
+            int rows = (int) Math.floor((r[2] - r[0]) / step) + 1;
+            int cols = (int) Math.floor((r[3] - r[1]) / step) + 1;
+            try {
+                if (rows < 2 || cols < 2) throw new IllegalArgumentException("Région trop petite pour le pas choisi");
+                List<double[]> coords = new ArrayList<>(rows * cols);
+                for (int row = 0; row < rows; row++) {
+                    for (int col = 0; col < cols; col++) {
+                        coords.add(new double[]{r[0] + row * step, r[1] + col * step});
+                    }
+                }
+                next.add(new Grid(r[0], r[1], step, rows, cols, openMeteoService.fetchMulti(coords, query)));
+            } catch (Exception e) {
+                System.err.println("Grille météo: échec du rafraîchissement de la région " + i + " : " + e.getMessage());
+                // On garde l'ancienne grille de cette région tant qu'elle n'est pas périmée
+                next.add(i < previous.size() ? previous.get(i) : null);
+            }
+        }
+        grids = next;
+    }
+
+    /* ==================== LECTURE ==================== */
+
+    /**
+     * Conditions actuelles interpolées depuis la grille, ou null si le point
+     * n'est couvert par aucune grille fraîche.
+     */
+    public OpenMeteoForecast current(double lat, double lng) {
+        Grid g = gridFor(lat, lng);
+        if (g == null) return null;
+
+        double[] values = new double[CURRENT_VAR_COUNT];
+        for (int v = 0; v < CURRENT_VAR_COUNT; v++) {
+            // NaN (noeud sans valeur) testé avant l'arrondi, qui le changerait en 0
+            double value = g.interpolate(g.current[v], 0, lat, lng);
+            if (Double.isNaN(value)) return null;
+            values[v] = round(value);
+        }
+        OpenMeteoForecast.Current current = new OpenMeteoForecast.Current(g.currentTime,
+                values[0], values[1], values[2], values[3], values[4], values[5], values[6], values[7]);
+        return new OpenMeteoForecast(current, g.currentUnits, null, null);
+    }
+
+    /**
+     * Prévisions des 12 prochaines heures interpolées depuis la grille, ou null si le point
+     * n'est pas couvert ou si la grille ne contient plus assez d'heures.
+     */
+    public OpenMeteoForecast hourly(double lat, double lng) {
+        Grid g = gridFor(lat, lng);
+        if (g == null) return null;
+
+        long now = Instant.now().getEpochSecond();
+        int start = (int) Math.max(0, Math.floorDiv(now - g.firstHourEpoch, 3600L));
+        int count = OpenMeteoService.FORECAST_HOURS;
+        if (start + count > g.hourlyTimes.length) return null;
+
+        int n = g.rows * g.cols;
+        List<String> times = new ArrayList<>(count);
+        for (int h = start; h < start + count; h++) times.add(g.hourlyTimes[h]);
+
+        List<List<Double>> series = new ArrayList<>(HOURLY_VAR_COUNT);
+        for (int v = 0; v < HOURLY_VAR_COUNT; v++) {
+            List<Double> values = new ArrayList<>(count);
+            for (int h = start; h < start + count; h++) {
+                double value = g.interpolate(g.hourly[v], h * n, lat, lng);
+                if (Double.isNaN(value)) return null;
+                values.add(round(value));
+            }
+            series.add(values);
+        }
+        OpenMeteoForecast.Hourly hourly = new OpenMeteoForecast.Hourly(times, series.get(0), series.get(1), series.get(2));
+        return new OpenMeteoForecast(null, null, hourly, g.hourlyUnits);
+    }
+
+    private Grid gridFor(double lat, double lng) {
+        long maxAge = 2L * refreshMinutes * 60_000L;
+        long now = System.currentTimeMillis();
+        for (Grid g : grids) {
+            if (g != null && g.covers(lat, lng) && now - g.fetchedAt <= maxAge) return g;
+        }
+        return null;
+    }
+
+    private static double round(double v) {
+        return Math.round(v * 100.0) / 100.0;
+    }
+
+    // Format: "latMin,lonMin,latMax,lonMax;latMin,lonMin,latMax,lonMax"
+    private static List<double[]> parseRegions(String spec) {
+        List<double[]> out = new ArrayList<>();
+        if (spec == null || spec.isBlank()) return out;
+        for (String region : spec.split(";")) {
+            String[] parts = region.trim().split(",");
+            if (parts.length != 4) {
+                throw new IllegalArgumentException("Région de grille invalide: " + region);
+            }
+            double latA = Double.parseDouble(parts[0].trim());
+            double lonA = Double.parseDouble(parts[1].trim());
+            double latB = Double.parseDouble(parts[2].trim());
+            double lonB = Double.parseDouble(parts[3].trim());
+            out.add(new double[]{Math.min(latA, latB), Math.min(lonA, lonB),
+                    Math.max(latA, latB), Math.max(lonA, lonB)});
+        }
+        return out;
+    }
+}
@@ -0,0 +1,248 @@
+package fr.weathermap.services;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import fr.weathermap.utils.ExpiringCache;
+
+/**
+ * Autocomplétion d'adresses via le géocodeur data.geopf.fr, avec cache.
+ *
+ * Les requêtes sont normalisées (casse, espaces) avant d'être mises en cache, et les
+ * frappes identiques simultanées ne déclenchent qu'un seul appel. Quand une requête a
+ * renvoyé moins de {@link #LIMIT} résultats, son résultat est complet : toute requête
+ * qui la prolonge ("par" → "pari") est alors servie en filtrant ce résultat localement.
+ *
+ * Avec geocoding.backend=local, un index d'adresses chargé au démarrage
+ * ({@link LocalAddressIndex}) répond d'abord, sans aucun appel réseau.
+ */
+@Service
+public class GeocodingService {
+
+    public static final int LIMIT = 10;
+    private static final String SEARCH_URL = "https://data.geopf.fr/geocodage/search";
+
+    public record Suggestion(String label, List<Double> coordinates) {
+    }
+
+    // complete = l'amont a renvoyé moins de LIMIT résultats
+    private record Result(List<Suggestion> suggestions, boolean complete) {
+    }
+
+    private final RestTemplate restTemplate;
+    private final ExpiringCache<String, Result> cache;
+    private final PrefixTrie completeQueries;
+
+    @Value("${geocoding.cache.ttl-minutes:1440}")
+    private int ttlMinutes = 1440;
+
+    // "geopf" (défaut, avec cache) ou "local" (index chargé depuis geocoding.local.file)
+    @Value("${geocoding.backend:geopf}")
+    private String backend = "geopf";
+
+    @Value("${geocoding.local.file:}")
+    private String localFile = "";
+
+    private volatile LocalAddressIndex localIndex;
+
+    public GeocodingService(RestTemplate restTemplate,
+                            @Value("${geocoding.cache.max-entries:10000}") int maxEntries) {
+        this.restTemplate = restTemplate;
+        this.cache = new ExpiringCache<>(maxEntries);
+        this.completeQueries = new PrefixTrie(maxEntries);
+    }
+
+    @PostConstruct
+    void loadLocalIndex() {
+        if (!"local".equalsIgnoreCase(backend)) return;
+        if (localFile == null || localFile.isBlank()) {
+            System.err.println("geocoding.backend=local sans geocoding.local.file : utilisation de geopf");
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            localIndex = LocalAddressIndex.load(Path.of(localFile));
+            System.out.println("Index local d'adresses: " + localIndex.size() + " libellés chargés en "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException e) {
+            System.err.println("Impossible de charger " + localFile + " : " + e.getMessage() + " (utilisation de geopf)");
+        }
+    }
+
+    public List<Suggestion> search(String query) {
+        String key = normalize(query);
+        if (key.isEmpty()) return List.of();
+
+        // Index local : réponse en mémoire ; hors de la zone couverte on retombe sur geopf
+        LocalAddressIndex index = localIndex;
+        if (index != null) {
+            List<Suggestion> local = index.search(key, LIMIT);
+            if (!local.isEmpty()) return local;
+        }
+
+        Result cached = cache.getIfPresent(key);
+        if (cached != null) return cached.suggestions();
+
+        // Plus long préfixe dont le résultat complet est encore en cache
+        for (String prefix = completeQueries.longestPrefixOf(key); prefix != null;
+             prefix = completeQueries.longestPrefixOf(prefix.substring(0, prefix.length() - 1))) {
+            Result parent = cache.getIfPresent(prefix);
+            if (parent != null && parent.complete()) {
+                return refine(parent.suggestions(), key);
+            }
+            completeQueries.remove(prefix);
+        }
+
+        Result result = cache.get(key, System.currentTimeMillis() + ttlMinutes * 60_000L, () -> fetch(key));
+        if (result.complete()) completeQueries.add(key);
+        return result.suggestions();
+    }
+
+    private Result fetch(String query) {
+        URI uri = UriComponentsBuilder.fromUriString(SEARCH_URL)
+                .queryParam("q", query)
+                .queryParam("autocomplete", 1)
+                .queryParam("index", "address,poi")
+                .queryParam("limit", LIMIT)
+                .encode()
+                .build()
+                .toUri();
+
+        GeopfSearchResponse response = restTemplate.getForObject(uri, GeopfSearchResponse.class);
+        List<Suggestion> suggestions = new ArrayList<>();
+        int count = 0;
+        if (response != null && response.features() != null) {
+            count = response.features().size();
+            for (GeopfSearchResponse.Feature feature : response.features()) {
+                GeopfSearchResponse.Properties properties = feature.properties();
+                GeopfSearchResponse.Geometry geometry = feature.geometry();
+                if (properties != null && geometry != null && geometry.coordinates() != null) {
+                    suggestions.add(new Suggestion(properties.label(), geometry.coordinates()));
+                }
+            }
+        }
+        return new Result(List.copyOf(suggestions), count < LIMIT);
+    }
+
+    /**
+     * Garde les suggestions dont le libellé contient, pour chaque mot de la requête,
+     * un mot qui commence par lui (sans tenir compte des accents).
+     */
+    private static List<Suggestion> refine(List<Suggestion> suggestions, String query) {
+        List<String> terms = words(query);
+        List<Suggestion> out = new ArrayList<>();
+        for (Suggestion s : suggestions) {
+            if (s.label() == null) continue;
+            List<String> labelWords = words(s.label());
+            boolean all = true;
+            for (String t : terms) {
+                boolean found = false;
+                for (String w : labelWords) {
+                    if (w.startsWith(t)) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    all = false;
+                    break;
+                }
+            }
+            if (all) out.add(s);
+        }
+        return out;
+    }
+
+    // Minuscules, espaces rognés et fusionnés
+    static String normalize(String query) {
+        if (query == null) return "";
+        return query.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Mots d'un libellé ou d'une requête, en minuscules et sans accents
+     * (même découpage pour l'index local et le filtrage des résultats en cache).
+     */
+    static List<String> words(String s) {
+        String decomposed = Normalizer.normalize(s.toLowerCase(Locale.ROOT), Normalizer.Form.NFD);
+        List<String> out = new ArrayList<>();
+        for (String w : decomposed.replaceAll("\\p{M}+", "").split("[^\\p{Alnum}]+")) {
+            if (!w.isEmpty()) out.add(w);
+        }
+        return out;
+    }
+
+    /* ==================== REQUÊTES À RÉSULTAT COMPLET ==================== */
+
+    /**
+     * Trie des requêtes normalisées dont le résultat est complet. Les marqueurs ne sont
+     * retirés que paresseusement (entrée expirée ou évincée du cache) ; au-delà de
+     * {@code maxMarks}, le trie est simplement vidé et se reconstruit au fil des requêtes.
+     */
+    private static final class PrefixTrie {
+
+        private static final class Node {
+            final Map<Character, Node> children = new HashMap<>(4);
+            boolean mark;
+        }
+
+        private final int maxMarks;
+        private Node root = new Node();
+        private int marks;
+
+        PrefixTrie(int maxMarks) {
+            this.maxMarks = maxMarks;
+        }
+
+        synchronized void add(String key) {
+            if (marks >= maxMarks) {
+                root = new Node();
+                marks = 0;
+            }
+            Node node = root;
+            for (int i = 0; i < key.length(); i++) {
+                node = node.children.computeIfAbsent(key.charAt(i), c -> new Node());
+            }
+            if (!node.mark) {
+                node.mark = true;
+                marks++;
+            }
+        }
+
+        synchronized void remove(String key) {
+            Node node = root;
+            for (int i = 0; i < key.length() && node != null; i++) {
+                node = node.children.get(key.charAt(i));
+            }
+            if (node != null && node.mark) {
+                node.mark = false;
+                marks--;
+            }
+        }
+
+        // Plus long préfixe marqué de key (key comprise), ou null
+        synchronized String longestPrefixOf(String key) {
+            Node node = root;
+            int best = -1;
+            for (int i = 0; i < key.length(); i++) {
+                node = node.children.get(key.charAt(i));
+                if (node == null) break;
+                if (node.mark) best = i + 1;
+            }
+            return best > 0 ? key.substring(0, best) : null;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package fr.weathermap.services;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * Sous-ensemble typé d'une réponse de géocodage data.geopf.fr (/geocodage/search).
+ * Seuls le libellé et les coordonnées de chaque feature sont lus.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record GeopfSearchResponse(List<Feature> features) {
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Feature(Properties properties, Geometry geometry) {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Properties(String label) {
+    }
+
+    // [lon, lat]
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Geometry(List<Double> coordinates) {
+    }
+}
@@ -1,20 +1,93 @@
 package fr.weathermap.services;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.*;
-import org.json.JSONArray;
-import org.json.JSONObject;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import fr.weathermap.utils.DouglasPeucker;
+import fr.weathermap.utils.ExpiringCache;
+import fr.weathermap.utils.GeoUtils;
+import fr.weathermap.utils.Geohash;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 
 @Service
 public class InterestPointService {
 
     private static final int MAX_RESULTS = 10;
 
+    private static final String OVERPASS_URL = "https://overpass-api.de/api/interpreter";
+    private static final int QUERY_TIMEOUT_SECONDS = 25;
+
+    // Précision des cellules geohash du cache (5 = ~4.9 km x 4.9 km)
+    @Value("${poi.cache.geohash-precision:5}")
+    private int geohashPrecision = 5;
+
+    // Les points d'intérêt OSM changent peu : durée de vie longue
+    @Value("${poi.cache.ttl-hours:24}")
+    private int cacheTtlHours = 24;
+
+    // "overpass" (défaut, avec cache geohash) ou "local" (index chargé depuis poi.local.file)
+    @Value("${poi.backend:overpass}")
+    private String backend = "overpass";
+
+    @Value("${poi.local.file:}")
+    private String localFile = "";
+
+    // Taille (degrés) des cellules de la grille de l'index local
+    @Value("${poi.local.cell-deg:0.01}")
+    private double localCellDeg = 0.01;
+
+    private volatile LocalPoiIndex localIndex;
+
+    // Nombre maximal de cellules par requête Overpass
+    @Value("${poi.overpass.cells-per-query:16}")
+    private int cellsPerQuery = 16;
+
+    // Échéance globale d'une recherche : au-delà, on répond avec ce qui est disponible
+    @Value("${poi.request.deadline-ms:8000}")
+    private long requestDeadlineMs = 8000;
+
+    // Pool borné : sa taille est la limite de requêtes simultanées vers Overpass
+    private final ExecutorService overpassExecutor;
+
+    // Clé "TYPE:geohash" -> éléments de ce type dans la cellule
+    private final ExpiringCache<String, List<OverpassElement>> cellCache;
+
+    public InterestPointService(@Value("${poi.cache.max-entries:20000}") int maxCacheEntries,
+                                @Value("${poi.overpass.max-concurrency:2}") int maxConcurrency) {
+        this.cellCache = new ExpiringCache<>(maxCacheEntries);
+        this.overpassExecutor = Executors.newFixedThreadPool(Math.max(1, maxConcurrency), r -> {
+            Thread t = new Thread(r, "overpass-fetch");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        overpassExecutor.shutdownNow();
+    }
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
     public enum PointOfInterestType {
         RESTAURANT("amenity", "restaurant"),
         MUSEUM("tourism", "museum"),
@@ -41,58 +114,248 @@ public class InterestPointService {
             PointOfInterestType.SUPERMARKET
     );
 
-    private String buildUrl(double latitude, double longitude, PointOfInterestType type, int radius) {
-        return "https://overpass-api.de/api/interpreter?data="
-                + "[out:json];node(around:" + radius + "," + latitude + "," + longitude + ")[\""
-                + type.getKey() + "\"=\"" + type.getValue() + "\"];out;";
+    /**
+     * Requête Overpass QL unique pour toutes les cellules manquantes : union d'un filtre
+     * bbox (la cellule geohash) et d'un filtre de tag par couple (cellule, type).
+     */
+    private String buildCellQuery(Map<String, List<PointOfInterestType>> missing) {
+        StringBuilder q = new StringBuilder("[out:json][timeout:" + QUERY_TIMEOUT_SECONDS + "];(");
+        for (Map.Entry<String, List<PointOfInterestType>> e : missing.entrySet()) {
+            double[] b = Geohash.bounds(e.getKey());
+            String bbox = "(" + b[0] + "," + b[1] + "," + b[2] + "," + b[3] + ")";
+            for (PointOfInterestType type : e.getValue()) {
+                q.append("node").append(bbox).append("[\"")
+                        .append(type.getKey()).append("\"=\"").append(type.getValue()).append("\"];");
+            }
+        }
+        q.append(");out;");
+        return q.toString();
     }
 
-    private List<Map<String, Object>> fetchPois(double latitude, double longitude, PointOfInterestType type, int radius) {
-        List<Map<String, Object>> pois = new ArrayList<>();
+    /* ==================== SOURCES DE CANDIDATS ==================== */
+
+    @PostConstruct
+    void loadLocalIndex() {
+        if (!"local".equalsIgnoreCase(backend)) return;
+        if (localFile == null || localFile.isBlank()) {
+            System.err.println("poi.backend=local sans poi.local.file : utilisation d'Overpass");
+            return;
+        }
         try {
-            String url = buildUrl(latitude, longitude, type, radius);
-
-            HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
-            conn.setRequestMethod("GET");
-            conn.setConnectTimeout(5000); // 5s timeout connexion
-            conn.setReadTimeout(10000);   // 10s timeout lecture
-
-            BufferedReader in = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-            StringBuilder response = new StringBuilder();
-            String line;
-            while ((line = in.readLine()) != null) response.append(line);
-            in.close();
-
-            JSONObject json = new JSONObject(response.toString());
-            JSONArray elements = json.getJSONArray("elements");
-
-            for (int i = 0; i < elements.length() && pois.size() < MAX_RESULTS; i++) {
-                JSONObject elem = elements.getJSONObject(i);
-                Map<String, Object> poi = new HashMap<>();
-                poi.put("id", elem.optLong("id"));
-                poi.put("lat", elem.optDouble("lat"));
-                poi.put("lon", elem.optDouble("lon"));
-                poi.put("type", type.getValue());
-
-                if (elem.has("tags")) {
-                    JSONObject tags = elem.getJSONObject("tags");
-                    poi.put("name", tags.optString("name", "Inconnu"));
-                } else {
-                    poi.put("name", "Inconnu");
+            long start = System.currentTimeMillis();
+            localIndex = LocalPoiIndex.load(Path.of(localFile), localCellDeg);
+            System.out.println("Index local de points d'intérêt: " + localIndex.size() + " points chargés en "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException e) {
+            System.err.println("Impossible de charger " + localFile + " : " + e.getMessage() + " (utilisation d'Overpass)");
+        }
+    }
+
+    /**
+     * Points d'intérêt des types demandés pouvant se trouver dans l'un des cercles
+     * {lat, lon, rayon en mètres}, dédoublonnés par identifiant. Le filtrage exact
+     * (distance, plafonds) est laissé à l'appelant.
+     */
+    private CompletableFuture<Candidates> candidates(List<double[]> circles, List<PointOfInterestType> types) {
+        LocalPoiIndex index = localIndex;
+        if (index == null) {
+            Set<String> cells = new LinkedHashSet<>();
+            for (double[] c : circles) {
+                coverCircle(c[0], c[1], c[2], cells);
+            }
+            return loadCells(cells, types);
+        }
+
+        // Index local : requêtes bbox en mémoire, aucun appel réseau
+        List<OverpassElement> hits = new ArrayList<>();
+        for (double[] c : circles) {
+            double dLat = Math.toDegrees(c[2] / GeoUtils.EARTH_RADIUS_METERS);
+            double dLon = dLat / Math.max(0.01, Math.cos(Math.toRadians(c[0])));
+            index.query(c[0] - dLat, c[1] - dLon, c[0] + dLat, c[1] + dLon, types, hits);
+        }
+        Map<Long, OverpassElement> unique = new LinkedHashMap<>();
+        for (OverpassElement elem : hits) unique.putIfAbsent(elem.id(), elem);
+        return CompletableFuture.completedFuture(new Candidates(new ArrayList<>(unique.values()), false));
+    }
+
+    // partial = certaines cellules n'ont pas pu être chargées avant l'échéance
+    private record Candidates(List<OverpassElement> elements, boolean partial) {
+    }
+
+    /* ==================== CACHE PAR CELLULE GEOHASH ==================== */
+
+    private static String cellKey(String cell, PointOfInterestType type) {
+        return type.name() + ":" + cell;
+    }
+
+    // Ajoute les cellules qui recouvrent le cercle (lat, lon, radius)
+    private void coverCircle(double lat, double lon, double radius, Set<String> cells) {
+        double dLat = Math.toDegrees(radius / GeoUtils.EARTH_RADIUS_METERS);
+        double dLon = dLat / Math.max(0.01, Math.cos(Math.toRadians(lat)));
+        cells.addAll(Geohash.cover(lat - dLat, lon - dLon, lat + dLat, lon + dLon, geohashPrecision));
+    }
+
+    /**
+     * Éléments des types demandés contenus dans les cellules, dédoublonnés par identifiant.
+     *
+     * Les couples (cellule, type) absents du cache sont regroupés en requêtes d'au plus
+     * {@code cellsPerQuery} cellules, exécutées en parallèle sur un pool borné (limite de
+     * concurrence vers Overpass). Le résultat est produit au plus tard à l'échéance de la
+     * requête : les cellules encore en cours sont alors ignorées (résultat partiel) mais
+     * leurs réponses alimenteront quand même le cache à leur arrivée.
+     */
+    private CompletableFuture<Candidates> loadCells(Set<String> cells, List<PointOfInterestType> types) {
+        Map<String, List<PointOfInterestType>> missing = new LinkedHashMap<>();
+        for (String cell : cells) {
+            for (PointOfInterestType type : types) {
+                if (cellCache.getIfPresent(cellKey(cell, type)) == null) {
+                    missing.computeIfAbsent(cell, c -> new ArrayList<>()).add(type);
                 }
+            }
+        }
+        if (missing.isEmpty()) {
+            return CompletableFuture.completedFuture(collectCells(cells, types));
+        }
 
-                pois.add(poi);
+        List<CompletableFuture<Void>> fetches = new ArrayList<>();
+        Map<String, List<PointOfInterestType>> chunk = new LinkedHashMap<>();
+        for (Map.Entry<String, List<PointOfInterestType>> e : missing.entrySet()) {
+            chunk.put(e.getKey(), e.getValue());
+            if (chunk.size() >= Math.max(1, cellsPerQuery)) {
+                fetches.add(fetchCellsAsync(chunk));
+                chunk = new LinkedHashMap<>();
+            }
+        }
+        if (!chunk.isEmpty()) fetches.add(fetchCellsAsync(chunk));
+
+        return CompletableFuture.allOf(fetches.toArray(new CompletableFuture<?>[0]))
+                .exceptionally(e -> null)
+                .completeOnTimeout(null, requestDeadlineMs, TimeUnit.MILLISECONDS)
+                .thenApply(v -> collectCells(cells, types));
+    }
+
+    // Relit le cache : tout couple encore absent rend le résultat partiel
+    private Candidates collectCells(Set<String> cells, List<PointOfInterestType> types) {
+        Map<Long, OverpassElement> out = new LinkedHashMap<>();
+        boolean partial = false;
+        for (String cell : cells) {
+            for (PointOfInterestType type : types) {
+                List<OverpassElement> cached = cellCache.getIfPresent(cellKey(cell, type));
+                if (cached == null) {
+                    partial = true;
+                    continue;
+                }
+                for (OverpassElement elem : cached) out.putIfAbsent(elem.id(), elem);
             }
+        }
+        return new Candidates(new ArrayList<>(out.values()), partial);
+    }
+
+    private CompletableFuture<Void> fetchCellsAsync(Map<String, List<PointOfInterestType>> cells) {
+        return CompletableFuture.runAsync(() -> fetchCells(cells), overpassExecutor);
+    }
 
+    // Une requête Overpass pour ces cellules ; les couples sans résultat sont aussi mis en cache (listes vides)
+    private void fetchCells(Map<String, List<PointOfInterestType>> cells) {
+        List<OverpassElement> fetched;
+        try {
+            fetched = runQuery(buildCellQuery(cells));
         } catch (Exception e) {
-            // On logge juste l'erreur et on continue
-            System.err.println("Erreur fetch " + type.getValue() + " pour " + latitude + "," + longitude + " : " + e.getMessage());
+            // On logge juste l'erreur : les cellules restent absentes du cache
+            System.err.println("Erreur fetch points d'intérêt pour " + cells.size() + " cellules : " + e.getMessage());
+            return;
+        }
+
+        Map<String, List<OverpassElement>> byKey = new HashMap<>();
+        for (Map.Entry<String, List<PointOfInterestType>> e : cells.entrySet()) {
+            for (PointOfInterestType type : e.getValue()) {
+                byKey.put(cellKey(e.getKey(), type), new ArrayList<>());
+            }
+        }
+        for (OverpassElement elem : fetched) {
+            String cell = Geohash.encode(elem.lat(), elem.lon(), geohashPrecision);
+            for (PointOfInterestType type : PointOfInterestType.values()) {
+                if (!matches(elem, type)) continue;
+                List<OverpassElement> list = byKey.get(cellKey(cell, type));
+                if (list != null) list.add(elem);
+            }
+        }
+        long expiresAt = System.currentTimeMillis() + cacheTtlHours * 3_600_000L;
+        for (Map.Entry<String, List<OverpassElement>> e : byKey.entrySet()) {
+            cellCache.put(e.getKey(), List.copyOf(e.getValue()), expiresAt);
+        }
+    }
+
+    // POST (la requête peut être longue) et lecture en flux de la réponse
+    private List<OverpassElement> runQuery(String query) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(OVERPASS_URL).openConnection();
+        conn.setRequestMethod("POST");
+        conn.setConnectTimeout(5000); // 5s timeout connexion
+        conn.setReadTimeout((QUERY_TIMEOUT_SECONDS + 5) * 1000);
+        conn.setDoOutput(true);
+        conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(("data=" + URLEncoder.encode(query, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8));
+        }
+        try (InputStream in = conn.getInputStream()) {
+            return readElements(in, Integer.MAX_VALUE);
+        }
+    }
+
+    private static Map<String, Object> toPoi(OverpassElement elem, PointOfInterestType type) {
+        Map<String, Object> poi = new HashMap<>();
+        poi.put("id", elem.id());
+        poi.put("lat", elem.lat());
+        poi.put("lon", elem.lon());
+        poi.put("type", type.getValue());
+        String name = (elem.tags() != null) ? elem.tags().name() : null;
+        poi.put("name", name != null ? name : "Inconnu");
+        return poi;
+    }
+
+    private static boolean matches(OverpassElement elem, PointOfInterestType type) {
+        return elem.tags() != null && type.getValue().equals(elem.tags().get(type.getKey()));
+    }
+
+    /**
+     * Lit le tableau "elements" d'une réponse Overpass au fil du flux, sans charger
+     * le document entier. La lecture s'arrête dès que {@code limit} éléments ont été lus.
+     */
+    private static List<OverpassElement> readElements(InputStream in, int limit) throws IOException {
+        List<OverpassElement> out = new ArrayList<>();
+        try (JsonParser parser = JSON.getFactory().createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) return out;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (!"elements".equals(field) || value != JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while (out.size() < limit && parser.nextToken() == JsonToken.START_OBJECT) {
+                    out.add(JSON.readValue(parser, OverpassElement.class));
+                }
+                return out;
+            }
         }
+        return out;
+    }
 
-        return pois;
+    /**
+     * Résultat d'une recherche : points d'intérêt par type, et indicateur de résultat
+     * partiel (échéance atteinte ou échec d'une partie des appels Overpass).
+     */
+    public record Suggestions(Map<String, List<Map<String, Object>>> pois, boolean partial) {
     }
 
-    public Map<String, List<Map<String, Object>>> getAllSuggestions(List<Double> latitudes, List<Double> longitudes, int radius) {
+    /**
+     * Points d'intérêt autour de chaque point, regroupés par type.
+     * Les candidats viennent des cellules geohash qui recouvrent les cercles de recherche
+     * (cache, puis une seule requête Overpass pour les cellules manquantes) ; ils sont
+     * ensuite répartis localement : pour chaque point et chaque type, au plus MAX_RESULTS
+     * éléments, du plus proche au plus éloigné.
+     */
+    public CompletableFuture<Suggestions> getAllSuggestions(List<Double> latitudes, List<Double> longitudes, int radius) {
         if (latitudes.size() != longitudes.size())
             throw new IllegalArgumentException("Les listes de latitudes et longitudes doivent avoir la même taille");
 
@@ -100,17 +363,102 @@ public class InterestPointService {
         for (PointOfInterestType type : INTEREST_POINTS) {
             allResults.put(type.getValue(), new ArrayList<>());
         }
+        if (latitudes.isEmpty()) return CompletableFuture.completedFuture(new Suggestions(allResults, false));
 
+        List<double[]> circles = new ArrayList<>(latitudes.size());
         for (int i = 0; i < latitudes.size(); i++) {
-            double lat = latitudes.get(i);
-            double lon = longitudes.get(i);
+            circles.add(new double[]{latitudes.get(i), longitudes.get(i), radius});
+        }
+        return candidates(circles, INTEREST_POINTS)
+                .thenApply(found -> new Suggestions(splitPerPoint(found.elements(), latitudes, longitudes, radius, allResults),
+                        found.partial()));
+    }
 
-            for (PointOfInterestType type : INTEREST_POINTS) {
-                List<Map<String, Object>> pois = fetchPois(lat, lon, type, radius);
-                allResults.get(type.getValue()).addAll(pois);
+    private Map<String, List<Map<String, Object>>> splitPerPoint(List<OverpassElement> elements,
+                                                                 List<Double> latitudes, List<Double> longitudes, int radius,
+                                                                 Map<String, List<Map<String, Object>>> allResults) {
+        for (PointOfInterestType type : INTEREST_POINTS) {
+            List<OverpassElement> ofType = new ArrayList<>();
+            for (OverpassElement elem : elements) {
+                if (matches(elem, type)) ofType.add(elem);
+            }
+
+            for (int i = 0; i < latitudes.size(); i++) {
+                double lat = latitudes.get(i);
+                double lon = longitudes.get(i);
+                List<OverpassElement> near = new ArrayList<>();
+                List<Double> distances = new ArrayList<>();
+                for (OverpassElement elem : ofType) {
+                    double d = GeoUtils.haversineMeters(lat, lon, elem.lat(), elem.lon());
+                    if (d <= radius) {
+                        near.add(elem);
+                        distances.add(d);
+                    }
+                }
+                Integer[] order = new Integer[near.size()];
+                for (int k = 0; k < order.length; k++) order[k] = k;
+                Arrays.sort(order, Comparator.comparingDouble(distances::get));
+                for (int k = 0; k < order.length && k < MAX_RESULTS; k++) {
+                    allResults.get(type.getValue()).add(toPoi(near.get(order[k]), type));
+                }
             }
         }
 
         return allResults;
     }
+
+    /**
+     * Points d'intérêt le long d'un itinéraire, dans un couloir de {@code buffer} mètres.
+     * Contrairement à {@link #getAllSuggestions}, chaque point d'intérêt n'apparaît qu'une
+     * fois (dédoublonnage par identifiant OSM) et les résultats sont triés par distance
+     * parcourue depuis le départ ("distance_along"), avec leur écart au tracé ("distance_from_route").
+     */
+    public CompletableFuture<Suggestions> getCorridorSuggestions(List<Double> latitudes, List<Double> longitudes, int buffer) {
+        if (latitudes.size() != longitudes.size())
+            throw new IllegalArgumentException("Les listes de latitudes et longitudes doivent avoir la même taille");
+
+        Map<String, List<Map<String, Object>>> allResults = new HashMap<>();
+        for (PointOfInterestType type : INTEREST_POINTS) {
+            allResults.put(type.getValue(), new ArrayList<>());
+        }
+        if (latitudes.isEmpty()) return CompletableFuture.completedFuture(new Suggestions(allResults, false));
+
+        List<List<Double>> line = new ArrayList<>(latitudes.size());
+        for (int i = 0; i < latitudes.size(); i++) {
+            line.add(List.of(latitudes.get(i), longitudes.get(i)));
+        }
+        // Le tracé servant à choisir les cellules est simplifié bien en-deçà de la largeur du couloir
+        double toleranceDegrees = buffer / 4.0 / 111_000.0;
+        List<List<Double>> queryLine = (line.size() > 2) ? DouglasPeucker.simplify(line, toleranceDegrees) : line;
+
+        // Points espacés d'au plus "buffer" sur un tracé simplifié à buffer/4 près :
+        // tout point du couloir est à moins de ~1.35 * buffer de l'un d'eux
+        List<double[]> circles = new ArrayList<>();
+        for (List<Double> p : GeoUtils.densify(queryLine, buffer)) {
+            circles.add(new double[]{p.get(0), p.get(1), buffer * 1.4});
+        }
+        return candidates(circles, INTEREST_POINTS)
+                .thenApply(found -> new Suggestions(rankAlongRoute(found.elements(), line, buffer, allResults),
+                        found.partial()));
+    }
+
+    private Map<String, List<Map<String, Object>>> rankAlongRoute(List<OverpassElement> elements,
+                                                                  List<List<Double>> line, int buffer,
+                                                                  Map<String, List<Map<String, Object>>> allResults) {
+        double[] cum = GeoUtils.cumulativeDistances(line);
+        for (PointOfInterestType type : INTEREST_POINTS) {
+            List<Map<String, Object>> pois = allResults.get(type.getValue());
+            for (OverpassElement elem : elements) {
+                if (!matches(elem, type)) continue;
+                double[] proj = GeoUtils.projectOnPolyline(line, cum, elem.lat(), elem.lon());
+                if (proj[1] > buffer) continue;
+                Map<String, Object> poi = toPoi(elem, type);
+                poi.put("distance_along", Math.round(proj[0]));
+                poi.put("distance_from_route", Math.round(proj[1]));
+                pois.add(poi);
+            }
+            pois.sort(Comparator.comparingLong(p -> (Long) p.get("distance_along")));
+        }
+        return allResults;
+    }
 }
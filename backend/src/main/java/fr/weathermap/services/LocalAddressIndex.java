@@ -0,0 +1,237 @@
+package fr.weathermap.services;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index d'autocomplétion en mémoire chargé depuis un export CSV d'adresses
+ * (format BAN "adresses-xx.csv", ou tout CSV avec des colonnes label, lon, lat).
+ *
+ * Les libellés sont découpés en mots normalisés (minuscules, sans accents). Les mots
+ * distincts forment une table triée ; chacun pointe vers une plage d'un tableau
+ * d'occurrences (libellés qui le contiennent, les plus courts d'abord). Un mot de la
+ * requête est donc résolu en préfixe par deux recherches dichotomiques.
+ */
+public class LocalAddressIndex {
+
+    // Libellés vérifiés au plus par requête (le mot le plus sélectif guide le parcours)
+    private static final int MAX_SCANNED = 5000;
+
+    // Un libellé par entrée, avec sa version normalisée (mots séparés par une espace)
+    private final String[] labels;
+    private final String[] folded;
+    private final float[] lons;
+    private final float[] lats;
+
+    // Table triée des mots ; les occurrences du mot i sont postings[starts[i] .. starts[i+1][
+    private final String[] words;
+    private final int[] starts;
+    private final int[] postings;
+
+    private LocalAddressIndex(List<String> labels, List<String> folded, float[] lons, float[] lats) {
+        int n = labels.size();
+        this.labels = labels.toArray(new String[0]);
+        this.folded = folded.toArray(new String[0]);
+        this.lons = lons;
+        this.lats = lats;
+
+        // Dictionnaire des mots, puis couples (rang du mot, longueur du libellé, entrée) triés
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> dictionary = new ArrayList<>();
+        long[] pairs = new long[Math.max(16, n * 4)];
+        int[] pairWords = new int[pairs.length];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            for (String w : this.folded[i].split(" ")) {
+                if (w.isEmpty()) continue;
+                Integer id = ids.get(w);
+                if (id == null) {
+                    id = dictionary.size();
+                    ids.put(w, id);
+                    dictionary.add(w);
+                }
+                if (count == pairs.length) {
+                    pairs = Arrays.copyOf(pairs, count * 2);
+                    pairWords = Arrays.copyOf(pairWords, count * 2);
+                }
+                pairWords[count] = id;
+                pairs[count++] = i;
+            }
+        }
+
+        String[] sortedWords = dictionary.toArray(new String[0]);
+        Arrays.sort(sortedWords);
+        int[] rank = new int[sortedWords.length];
+        for (int r = 0; r < sortedWords.length; r++) rank[ids.get(sortedWords[r])] = r;
+
+        for (int k = 0; k < count; k++) {
+            int entry = (int) pairs[k];
+            long len = Math.min(this.labels[entry].length(), 0xFFF);
+            pairs[k] = ((long) rank[pairWords[k]] << 40) | (len << 28) | entry;
+        }
+        Arrays.sort(pairs, 0, count);
+
+        this.words = sortedWords;
+        this.starts = new int[sortedWords.length + 1];
+        this.postings = new int[count];
+        for (int k = 0; k < count; k++) {
+            postings[k] = (int) (pairs[k] & 0xFFFFFFF);
+            starts[(int) (pairs[k] >>> 40) + 1]++;
+        }
+        for (int r = 0; r < sortedWords.length; r++) starts[r + 1] += starts[r];
+    }
+
+    /**
+     * Charge le CSV (séparateur ";" ou ",", première ligne = en-tête). Les libellés BAN
+     * sont reconstitués comme ceux du géocodeur : "numéro rep voie code_postal commune".
+     */
+    public static LocalAddressIndex load(Path file) throws IOException {
+        List<String> labels = new ArrayList<>();
+        List<String> folded = new ArrayList<>();
+        float[] lons = new float[1024];
+        float[] lats = new float[1024];
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (header == null) throw new IOException("CSV vide");
+            String sep = header.contains(";") ? ";" : ",";
+            Map<String, Integer> col = new HashMap<>();
+            String[] names = header.split(sep, -1);
+            for (int i = 0; i < names.length; i++) col.put(names[i].trim().toLowerCase(), i);
+            if (!col.containsKey("lon") || !col.containsKey("lat")) {
+                throw new IOException("Colonnes lon/lat absentes de l'en-tête");
+            }
+            if (!col.containsKey("label") && !col.containsKey("nom_voie")) {
+                throw new IOException("Colonne label (ou nom_voie pour la BAN) absente de l'en-tête");
+            }
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] f = line.split(sep, -1);
+                String label = col.containsKey("label") ? field(f, col, "label") : banLabel(f, col);
+                if (label.isEmpty()) continue;
+                double lon;
+                double lat;
+                try {
+                    lon = Double.parseDouble(field(f, col, "lon"));
+                    lat = Double.parseDouble(field(f, col, "lat"));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                int i = labels.size();
+                if (i == lons.length) {
+                    lons = Arrays.copyOf(lons, i * 2);
+                    lats = Arrays.copyOf(lats, i * 2);
+                }
+                labels.add(label);
+                folded.add(String.join(" ", GeocodingService.words(label)));
+                lons[i] = (float) lon;
+                lats[i] = (float) lat;
+            }
+        }
+        int n = labels.size();
+        return new LocalAddressIndex(labels, folded, Arrays.copyOf(lons, n), Arrays.copyOf(lats, n));
+    }
+
+    public int size() {
+        return labels.length;
+    }
+
+    /**
+     * Au plus {@code limit} suggestions dont le libellé contient, pour chaque mot de la
+     * requête, un mot qui commence par lui.
+     */
+    public List<GeocodingService.Suggestion> search(String query, int limit) {
+        List<String> terms = GeocodingService.words(query);
+        if (terms.isEmpty()) return List.of();
+
+        // Parcours guidé par le terme dont la plage d'occurrences est la plus courte
+        int bestFrom = 0;
+        int bestTo = -1;
+        for (String t : terms) {
+            int from = starts[lowerBound(t)];
+            int to = starts[lowerBound(t + Character.MAX_VALUE)];
+            if (bestTo < 0 || to - from < bestTo - bestFrom) {
+                bestFrom = from;
+                bestTo = to;
+            }
+        }
+
+        List<GeocodingService.Suggestion> out = new ArrayList<>();
+        int[] seen = new int[limit];
+        int scanned = 0;
+        for (int k = bestFrom; k < bestTo && out.size() < limit && scanned < MAX_SCANNED; k++, scanned++) {
+            int entry = postings[k];
+            if (!containsAll(folded[entry], terms)) continue;
+            // Un libellé peut contenir deux fois le même mot
+            boolean duplicate = false;
+            for (int d = 0; d < out.size(); d++) {
+                if (seen[d] == entry) {
+                    duplicate = true;
+                    break;
+                }
+            }
+            if (duplicate) continue;
+            seen[out.size()] = entry;
+            out.add(new GeocodingService.Suggestion(labels[entry], List.of(round(lons[entry]), round(lats[entry]))));
+        }
+        return out;
+    }
+
+    // Les coordonnées sont stockées en float : on retire le bruit de conversion (~1e-7°)
+    private static double round(float v) {
+        return Math.round(v * 1e6) / 1e6;
+    }
+
+    // Chaque terme est le début d'un mot du libellé normalisé
+    private static boolean containsAll(String foldedLabel, List<String> terms) {
+        for (String t : terms) {
+            if (!foldedLabel.startsWith(t) && !foldedLabel.contains(" " + t)) return false;
+        }
+        return true;
+    }
+
+    // Premier rang dont le mot est >= key
+    private int lowerBound(String key) {
+        int lo = 0;
+        int hi = words.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (words[mid].compareTo(key) < 0) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    private static String field(String[] f, Map<String, Integer> col, String name) {
+        Integer i = col.get(name);
+        return (i != null && i < f.length) ? f[i].trim() : "";
+    }
+
+    private static String banLabel(String[] f, Map<String, Integer> col) {
+        String street = field(f, col, "nom_voie");
+        if (street.isEmpty()) street = field(f, col, "nom_ld");
+        if (street.isEmpty()) return "";
+        StringBuilder sb = new StringBuilder();
+        String number = field(f, col, "numero");
+        if (!number.isEmpty() && !"99999".equals(number)) {
+            sb.append(number);
+            String rep = field(f, col, "rep");
+            if (!rep.isEmpty()) sb.append(' ').append(rep);
+            sb.append(' ');
+        }
+        sb.append(street);
+        String postcode = field(f, col, "code_postal");
+        if (!postcode.isEmpty()) sb.append(' ').append(postcode);
+        String city = field(f, col, "nom_commune");
+        if (!city.isEmpty()) sb.append(' ').append(city);
+        return sb.toString();
+    }
+}
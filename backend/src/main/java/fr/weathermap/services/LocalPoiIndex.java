@@ -0,0 +1,195 @@
+package fr.weathermap.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fr.weathermap.services.InterestPointService.PointOfInterestType;
+
+/**
+ * Index spatial en mémoire de points d'intérêt chargés depuis un extrait OSM local
+ * (GeoJSON pré-filtré : FeatureCollection de points portant les tags OSM en propriétés).
+ *
+ * Les points sont rangés dans une grille régulière compacte : tableaux primitifs triés
+ * par cellule, la ligne de cellules étant l'ordre majeur. Les cellules d'une même ligne
+ * sont donc contiguës et une requête bbox coûte une recherche dichotomique par ligne.
+ */
+public class LocalPoiIndex {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final PointOfInterestType[] TYPES = PointOfInterestType.values();
+
+    private final double cellDeg;
+    private final int cols;
+
+    // Tableaux parallèles, triés par cellule
+    private final int[] cellKeys;
+    private final long[] ids;
+    private final double[] lats;
+    private final double[] lons;
+    private final byte[] types;
+    private final String[] names;
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record Feature(Object id, Geometry geometry, OverpassElement.Tags properties) {
+    }
+
+    // [lon, lat]
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record Geometry(String type, double[] coordinates) {
+    }
+
+    private LocalPoiIndex(double cellDeg, List<Feature> features, List<PointOfInterestType> featureTypes) {
+        this.cellDeg = cellDeg;
+        this.cols = (int) Math.ceil(360.0 / cellDeg);
+
+        int n = features.size();
+        long[] order = new long[n];
+        for (int i = 0; i < n; i++) {
+            double[] c = features.get(i).geometry().coordinates();
+            order[i] = ((long) cellKey(c[1], c[0]) << 32) | i;
+        }
+        Arrays.sort(order);
+
+        this.cellKeys = new int[n];
+        this.ids = new long[n];
+        this.lats = new double[n];
+        this.lons = new double[n];
+        this.types = new byte[n];
+        this.names = new String[n];
+        for (int k = 0; k < n; k++) {
+            int i = (int) (order[k] & 0xffffffffL);
+            Feature f = features.get(i);
+            cellKeys[k] = (int) (order[k] >>> 32);
+            ids[k] = parseId(f.id(), k);
+            lats[k] = f.geometry().coordinates()[1];
+            lons[k] = f.geometry().coordinates()[0];
+            types[k] = (byte) featureTypes.get(i).ordinal();
+            names[k] = f.properties().name();
+        }
+    }
+
+    /**
+     * Charge l'extrait en ne gardant que les points dont les tags correspondent
+     * à un {@link PointOfInterestType}.
+     */
+    public static LocalPoiIndex load(Path file, double cellDeg) throws IOException {
+        List<Feature> kept = new ArrayList<>();
+        List<PointOfInterestType> keptTypes = new ArrayList<>();
+        try (InputStream in = Files.newInputStream(file);
+             JsonParser parser = JSON.getFactory().createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("GeoJSON invalide: objet racine attendu");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (!"features".equals(field) || value != JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    Feature f = JSON.readValue(parser, Feature.class);
+                    if (f.geometry() == null || !"Point".equals(f.geometry().type())
+                            || f.geometry().coordinates() == null || f.geometry().coordinates().length < 2
+                            || f.properties() == null) {
+                        continue;
+                    }
+                    for (PointOfInterestType type : TYPES) {
+                        if (type.getValue().equals(f.properties().get(type.getKey()))) {
+                            kept.add(f);
+                            keptTypes.add(type);
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        return new LocalPoiIndex(cellDeg, kept, keptTypes);
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Points des types demandés contenus dans la bbox, ajoutés à {@code out}.
+     */
+    public void query(double latMin, double lonMin, double latMax, double lonMax,
+                      List<PointOfInterestType> wanted, List<OverpassElement> out) {
+        int typeMask = 0;
+        for (PointOfInterestType t : wanted) typeMask |= 1 << t.ordinal();
+
+        int cyMin = cellY(latMin);
+        int cyMax = cellY(latMax);
+        int cxMin = cellX(lonMin);
+        int cxMax = cellX(lonMax);
+        for (int cy = cyMin; cy <= cyMax; cy++) {
+            int from = cy * cols + cxMin;
+            int to = cy * cols + cxMax;
+            for (int k = lowerBound(from); k < cellKeys.length && cellKeys[k] <= to; k++) {
+                if ((typeMask & (1 << types[k])) == 0) continue;
+                if (lats[k] < latMin || lats[k] > latMax || lons[k] < lonMin || lons[k] > lonMax) continue;
+                out.add(toElement(k));
+            }
+        }
+    }
+
+    private OverpassElement toElement(int k) {
+        PointOfInterestType type = TYPES[types[k]];
+        String key = type.getKey();
+        OverpassElement.Tags tags = new OverpassElement.Tags(names[k],
+                "amenity".equals(key) ? type.getValue() : null,
+                "shop".equals(key) ? type.getValue() : null,
+                "tourism".equals(key) ? type.getValue() : null);
+        return new OverpassElement(ids[k], lats[k], lons[k], tags);
+    }
+
+    private int lowerBound(int key) {
+        int lo = 0;
+        int hi = cellKeys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cellKeys[mid] < key) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    private int cellKey(double lat, double lon) {
+        return cellY(lat) * cols + cellX(lon);
+    }
+
+    private int cellY(double lat) {
+        double clamped = Math.max(-90.0, Math.min(90.0, lat));
+        return (int) Math.floor((clamped + 90.0) / cellDeg);
+    }
+
+    private int cellX(double lon) {
+        double clamped = Math.max(-180.0, Math.min(180.0 - 1e-9, lon));
+        return (int) Math.floor((clamped + 180.0) / cellDeg);
+    }
+
+    // Identifiant OSM : nombre, "node/123" ou "n123" selon l'outil d'extraction
+    private static long parseId(Object id, int fallback) {
+        if (id instanceof Number) return ((Number) id).longValue();
+        if (id instanceof String) {
+            String digits = ((String) id).replaceAll("[^0-9]", "");
+            if (!digits.isEmpty()) {
+                try {
+                    return Long.parseLong(digits);
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        return -1L - fallback;
+    }
+}
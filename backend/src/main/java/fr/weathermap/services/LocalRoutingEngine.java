@@ -0,0 +1,208 @@
+package fr.weathermap.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+import fr.weathermap.utils.GeoUtils;
+
+/**
+ * Moteur d'itinéraire embarqué : A* dépendant du temps sur un {@link RoadGraph}.
+ *
+ * Le coût d'un arc est son temps de parcours, multiplié par {@code rainPenalty} quand
+ * il pleut en son milieu d'après la frame radar valable à l'heure estimée de passage.
+ * Une seule recherche remplace ainsi les appels Valhalla successifs (un par frame,
+ * avec polygones d'exclusion) du mode dynamique.
+ */
+public class LocalRoutingEngine {
+
+    private final RoadGraph graph;
+
+    // États de recherche (tableaux de la taille du graphe) gardés pour être réutilisés
+    private static final int MAX_POOLED_STATES = 4;
+    private final ConcurrentLinkedDeque<SearchState> pool = new ConcurrentLinkedDeque<>();
+
+    public LocalRoutingEngine(RoadGraph graph) {
+        this.graph = graph;
+    }
+
+    public RoadGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Itinéraire calculé localement.
+     *
+     * @param shapeLatLon points [lat, lon] du tracé
+     * @param times       heure de passage (secondes depuis le départ) à chaque point
+     * @param distances   distance parcourue (mètres) à chaque point
+     */
+    public record Route(List<List<Double>> shapeLatLon, double[] times, double[] distances) {
+        public double duration() {
+            return times.length > 0 ? times[times.length - 1] : 0.0;
+        }
+
+        public double distance() {
+            return distances.length > 0 ? distances[distances.length - 1] : 0.0;
+        }
+    }
+
+    // "stamp" et "closed" valent la génération de la recherche en cours : pas de remise à zéro entre deux recherches
+    private static final class SearchState {
+        final int[] stamp;
+        final int[] closed;
+        final float[] cost;
+        final float[] time;
+        final int[] parent;
+        int generation;
+        long[] heap = new long[1024];
+        int heapSize;
+
+        SearchState(int n) {
+            stamp = new int[n];
+            closed = new int[n];
+            cost = new float[n];
+            time = new float[n];
+            parent = new int[n];
+        }
+
+        // Entrée de tas : priorité (float positif, ordre des bits = ordre des valeurs) et sommet
+        void push(float priority, int v) {
+            if (heapSize == heap.length) heap = Arrays.copyOf(heap, heapSize * 2);
+            long item = ((long) Float.floatToIntBits(priority) << 32) | v;
+            int i = heapSize++;
+            while (i > 0) {
+                int p = (i - 1) >>> 1;
+                if (heap[p] <= item) break;
+                heap[i] = heap[p];
+                i = p;
+            }
+            heap[i] = item;
+        }
+
+        long pop() {
+            long top = heap[0];
+            long last = heap[--heapSize];
+            int i = 0;
+            while (true) {
+                int c = 2 * i + 1;
+                if (c >= heapSize) break;
+                if (c + 1 < heapSize && heap[c + 1] < heap[c]) c++;
+                if (last <= heap[c]) break;
+                heap[i] = heap[c];
+                i = c;
+            }
+            if (heapSize > 0) heap[i] = last;
+            return top;
+        }
+    }
+
+    /**
+     * @param frames       masques de pluie successifs (peut être vide : plus court chemin en temps)
+     * @param frameSeconds durée de validité de chaque frame depuis le départ ; au-delà de la
+     *                     dernière, celle-ci reste valable
+     * @param rainPenalty  facteur appliqué au temps de parcours d'un arc sous la pluie (>= 1)
+     * @return l'itinéraire, ou null si aucun sommet proche ou aucun chemin
+     */
+    public Route route(double sLat, double sLon, double eLat, double eLon,
+                       List<RadarMask> frames, double frameSeconds, double rainPenalty) {
+        int source = graph.nearestVertex(sLat, sLon, true);
+        int target = graph.nearestVertex(eLat, eLon, false);
+        if (source < 0 || target < 0) return null;
+
+        SearchState st = pool.poll();
+        if (st == null) st = new SearchState(graph.vertexCount());
+        try {
+            return search(st, source, target, frames, frameSeconds, rainPenalty);
+        } finally {
+            if (pool.size() < MAX_POOLED_STATES) pool.offer(st);
+        }
+    }
+
+    private Route search(SearchState st, int source, int target,
+                         List<RadarMask> frames, double frameSeconds, double rainPenalty) {
+        int gen = ++st.generation;
+        if (gen == 0) { // débordement : on repart de zéro
+            Arrays.fill(st.stamp, 0);
+            Arrays.fill(st.closed, 0);
+            gen = st.generation = 1;
+        }
+        st.heapSize = 0;
+
+        float[] lats = graph.lats;
+        float[] lons = graph.lons;
+        double penalty = Math.max(1.0, rainPenalty);
+        double tLat = lats[target];
+        double tLon = lons[target];
+
+        st.stamp[source] = gen;
+        st.cost[source] = 0f;
+        st.time[source] = 0f;
+        st.parent[source] = -1;
+        st.push(heuristic(lats[source], lons[source], tLat, tLon), source);
+
+        boolean found = false;
+        while (st.heapSize > 0) {
+            int u = (int) st.pop();
+            // Heuristique cohérente : le premier retrait d'un sommet est définitif
+            if (st.closed[u] == gen) continue;
+            st.closed[u] = gen;
+            if (u == target) {
+                found = true;
+                break;
+            }
+            float costU = st.cost[u];
+            float timeU = st.time[u];
+            for (int e = graph.firstEdge[u]; e < graph.firstEdge[u + 1]; e++) {
+                int v = graph.edgeTarget[e];
+                double travel = graph.edgeLength[e] / graph.edgeSpeed[e];
+                double edgeCost = travel;
+                if (!frames.isEmpty()) {
+                    double midTime = timeU + travel / 2;
+                    int frame = (int) Math.min(frames.size() - 1, Math.floor(midTime / frameSeconds));
+                    RadarMask mask = frames.get(frame);
+                    if (mask != null && mask.isRainingAt((lats[u] + lats[v]) / 2.0, (lons[u] + lons[v]) / 2.0)) {
+                        edgeCost *= penalty;
+                    }
+                }
+                float newCost = (float) (costU + edgeCost);
+                if (st.closed[v] == gen || (st.stamp[v] == gen && st.cost[v] <= newCost)) continue;
+                st.stamp[v] = gen;
+                st.cost[v] = newCost;
+                st.time[v] = (float) (timeU + travel);
+                st.parent[v] = u;
+                st.push(newCost + heuristic(lats[v], lons[v], tLat, tLon), v);
+            }
+        }
+        if (!found) return null;
+
+        // Remontée des parents
+        List<Integer> path = new ArrayList<>();
+        for (int v = target; v >= 0; v = st.parent[v]) path.add(v);
+        int n = path.size();
+        List<List<Double>> shape = new ArrayList<>(n);
+        double[] times = new double[n];
+        double[] distances = new double[n];
+        for (int k = 0; k < n; k++) {
+            int v = path.get(n - 1 - k);
+            shape.add(List.of(round(lats[v]), round(lons[v])));
+            times[k] = st.time[v];
+            if (k > 0) {
+                List<Double> prev = shape.get(k - 1);
+                distances[k] = distances[k - 1] + GeoUtils.haversineMeters(prev.get(0), prev.get(1), lats[v], lons[v]);
+            }
+        }
+        return new Route(shape, times, distances);
+    }
+
+    // Coordonnées stockées en float : on retire le bruit de conversion (~1e-7°)
+    private static double round(float v) {
+        return Math.round(v * 1e6) / 1e6;
+    }
+
+    // Borne inférieure du temps restant : distance à vol d'oiseau à la vitesse maximale du graphe
+    private float heuristic(double lat, double lon, double tLat, double tLon) {
+        return (float) (GeoUtils.haversineMeters(lat, lon, tLat, tLon) / graph.maxSpeed);
+    }
+}
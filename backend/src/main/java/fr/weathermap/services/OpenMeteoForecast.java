@@ -0,0 +1,53 @@
+package fr.weathermap.services;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Sous-ensemble typé d'une réponse Open-Meteo /v1/forecast.
+ * Seules les variables demandées par l'application sont lues ; le reste du
+ * document est sauté par le parseur sans être construit en mémoire.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record OpenMeteoForecast(
+        Current current,
+        @JsonProperty("current_units") Units currentUnits,
+        Hourly hourly,
+        @JsonProperty("hourly_units") Units hourlyUnits) {
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Current(
+            String time,
+            @JsonProperty("temperature_2m") Double temperature,
+            @JsonProperty("apparent_temperature") Double apparentTemperature,
+            @JsonProperty("relative_humidity_2m") Double humidity,
+            @JsonProperty("wind_speed_10m") Double windSpeed,
+            Double rain,
+            Double precipitation,
+            @JsonProperty("cloud_cover") Double cloudCover,
+            Double visibility) {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Hourly(
+            List<String> time,
+            @JsonProperty("temperature_2m") List<Double> temperature,
+            @JsonProperty("apparent_temperature") List<Double> apparentTemperature,
+            List<Double> precipitation) {
+    }
+
+    // Mêmes noms de variables pour "current_units" et "hourly_units"
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Units(
+            @JsonProperty("temperature_2m") String temperature,
+            @JsonProperty("apparent_temperature") String apparentTemperature,
+            @JsonProperty("relative_humidity_2m") String humidity,
+            @JsonProperty("wind_speed_10m") String windSpeed,
+            String rain,
+            String precipitation,
+            @JsonProperty("cloud_cover") String cloudCover,
+            String visibility) {
+    }
+}
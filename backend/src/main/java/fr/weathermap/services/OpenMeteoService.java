@@ -0,0 +1,213 @@
+package fr.weathermap.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fr.weathermap.utils.ExpiringCache;
+
+/**
+ * Accès à l'API Open-Meteo avec cache.
+ *
+ * Les coordonnées sont arrondies sur une grille proche de celle des modèles
+ * (quelques km) : deux clics voisins tombent dans la même maille et partagent
+ * la même réponse. Les entrées expirent à la prochaine mise à jour des données
+ * (quart d'heure pour "current", heure pleine pour "hourly").
+ *
+ * Les réponses sont lues directement dans {@link OpenMeteoForecast} : seules les
+ * variables utiles sont construites.
+ */
+@Service
+public class OpenMeteoService {
+
+    private static final String FORECAST_URL = "https://api.open-meteo.com/v1/forecast";
+
+    public static final String CURRENT_VARIABLES =
+            "temperature_2m,apparent_temperature,relative_humidity_2m,wind_speed_10m,rain,precipitation,cloud_cover,visibility";
+    public static final String HOURLY_VARIABLES = "temperature_2m,apparent_temperature,precipitation";
+    public static final int FORECAST_HOURS = 12;
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final RestTemplate restTemplate;
+
+    // Pas de la grille d'arrondi (degrés)
+    @Value("${weather.cache.grid-step:0.05}")
+    private double gridStep = 0.05;
+
+    // Cadence de mise à jour des données "current" / "hourly" (minutes)
+    @Value("${weather.cache.current-cadence-minutes:15}")
+    private int currentCadenceMinutes = 15;
+
+    @Value("${weather.cache.hourly-cadence-minutes:60}")
+    private int hourlyCadenceMinutes = 60;
+
+    // Nombre maximal de coordonnées par appel groupé (limite la longueur de l'URL)
+    @Value("${weather.batch.max-locations:100}")
+    private int maxBatchLocations = 100;
+
+    private final ExpiringCache<String, OpenMeteoForecast> cache;
+
+    public OpenMeteoService(RestTemplate restTemplate,
+                            @Value("${weather.cache.max-entries:5000}") int maxEntries) {
+        this.restTemplate = restTemplate;
+        this.cache = new ExpiringCache<>(maxEntries);
+    }
+
+    /**
+     * Réponse brute Open-Meteo pour les conditions actuelles au point de grille le plus proche.
+     */
+    public OpenMeteoForecast fetchCurrent(double lat, double lng) {
+        double sLat = snap(lat);
+        double sLng = snap(lng);
+        String url = FORECAST_URL
+                + "?latitude=" + sLat
+                + "&longitude=" + sLng
+                + "&current=" + CURRENT_VARIABLES;
+        long expiresAt = ExpiringCache.nextBoundary(System.currentTimeMillis(), currentCadenceMinutes * 60_000L);
+        return cache.get("current:" + sLat + "," + sLng, expiresAt,
+                () -> restTemplate.getForObject(url, OpenMeteoForecast.class));
+    }
+
+    /**
+     * Réponse brute Open-Meteo pour les prévisions horaires (12h) au point de grille le plus proche.
+     */
+    public OpenMeteoForecast fetchHourly(double lat, double lng) {
+        double sLat = snap(lat);
+        double sLng = snap(lng);
+        String url = FORECAST_URL
+                + "?latitude=" + sLat
+                + "&longitude=" + sLng
+                + "&hourly=" + HOURLY_VARIABLES
+                + "&forecast_hours=" + FORECAST_HOURS;
+        long expiresAt = ExpiringCache.nextBoundary(System.currentTimeMillis(), hourlyCadenceMinutes * 60_000L);
+        return cache.get(hourlyKey(sLat, sLng), expiresAt,
+                () -> restTemplate.getForObject(url, OpenMeteoForecast.class));
+    }
+
+    /**
+     * Prévisions horaires pour plusieurs points en un minimum d'appels.
+     * Les points sont arrondis et dédoublonnés, ceux déjà en cache ne sont pas redemandés,
+     * et les autres sont envoyés par paquets (voir {@link #fetchMulti}).
+     *
+     * @param points liste de [lat, lng]
+     * @return une réponse brute par point d'entrée (même ordre), null si indisponible
+     */
+    public List<OpenMeteoForecast> fetchHourlyBatch(List<double[]> points) {
+        Map<String, OpenMeteoForecast> resolved = new HashMap<>();
+        Map<String, double[]> missing = new LinkedHashMap<>();
+        List<String> pointKeys = new ArrayList<>(points.size());
+
+        for (double[] p : points) {
+            double sLat = snap(p[0]);
+            double sLng = snap(p[1]);
+            String key = hourlyKey(sLat, sLng);
+            pointKeys.add(key);
+            if (resolved.containsKey(key) || missing.containsKey(key)) continue;
+            OpenMeteoForecast cached = cache.getIfPresent(key);
+            if (cached != null) {
+                resolved.put(key, cached);
+            } else {
+                missing.put(key, new double[]{sLat, sLng});
+            }
+        }
+
+        long expiresAt = ExpiringCache.nextBoundary(System.currentTimeMillis(), hourlyCadenceMinutes * 60_000L);
+        List<String> keys = new ArrayList<>(missing.keySet());
+        List<double[]> coords = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            coords.add(missing.get(key));
+        }
+        List<OpenMeteoForecast> fetched = fetchMulti(coords,
+                "&hourly=" + HOURLY_VARIABLES + "&forecast_hours=" + FORECAST_HOURS);
+        for (int i = 0; i < keys.size(); i++) {
+            OpenMeteoForecast item = fetched.get(i);
+            if (item != null) {
+                cache.put(keys.get(i), item, expiresAt);
+                resolved.put(keys.get(i), item);
+            }
+        }
+
+        List<OpenMeteoForecast> out = new ArrayList<>(points.size());
+        for (String key : pointKeys) {
+            out.add(resolved.get(key));
+        }
+        return out;
+    }
+
+    /**
+     * Appels Open-Meteo groupés sans cache ni arrondi, par paquets de {@code maxBatchLocations}.
+     *
+     * @param coords liste de [lat, lng]
+     * @param query  paramètres de variables ("&current=...", "&hourly=...")
+     * @return une réponse brute par coordonnée (même ordre), null si absente
+     */
+    public List<OpenMeteoForecast> fetchMulti(List<double[]> coords, String query) {
+        List<OpenMeteoForecast> out = new ArrayList<>(coords.size());
+        int chunkSize = Math.max(1, maxBatchLocations);
+        for (int from = 0; from < coords.size(); from += chunkSize) {
+            List<double[]> chunk = coords.subList(from, Math.min(coords.size(), from + chunkSize));
+            StringBuilder lats = new StringBuilder();
+            StringBuilder lngs = new StringBuilder();
+            for (double[] c : chunk) {
+                if (lats.length() > 0) {
+                    lats.append(',');
+                    lngs.append(',');
+                }
+                lats.append(c[0]);
+                lngs.append(c[1]);
+            }
+            String url = FORECAST_URL
+                    + "?latitude=" + lats
+                    + "&longitude=" + lngs
+                    + query;
+
+            List<OpenMeteoForecast> items = restTemplate.execute(url, HttpMethod.GET, null,
+                    response -> readForecasts(response.getBody()));
+            for (int i = 0; i < chunk.size(); i++) {
+                out.add((items != null && i < items.size()) ? items.get(i) : null);
+            }
+        }
+        return out;
+    }
+
+    // Un seul point -> objet, plusieurs -> tableau ; lecture au fil du flux, élément par élément
+    private static List<OpenMeteoForecast> readForecasts(InputStream body) throws IOException {
+        List<OpenMeteoForecast> out = new ArrayList<>();
+        try (JsonParser parser = JSON.getFactory().createParser(body)) {
+            JsonToken first = parser.nextToken();
+            if (first == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    out.add(JSON.readValue(parser, OpenMeteoForecast.class));
+                }
+            } else if (first == JsonToken.START_OBJECT) {
+                out.add(JSON.readValue(parser, OpenMeteoForecast.class));
+            }
+        }
+        return out;
+    }
+
+    private static String hourlyKey(double sLat, double sLng) {
+        return "hourly:" + sLat + "," + sLng;
+    }
+
+    double snap(double value) {
+        if (gridStep <= 0) return value;
+        // Arrondi puis nettoyage des erreurs de virgule flottante (0.15000000000000002)
+        double snapped = Math.round(value / gridStep) * gridStep;
+        return Math.round(snapped * 1e6) / 1e6;
+    }
+}
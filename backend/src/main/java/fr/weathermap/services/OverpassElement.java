@@ -0,0 +1,25 @@
+package fr.weathermap.services;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * Élément "node" d'une réponse Overpass (format JSON), réduit aux champs utilisés.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record OverpassElement(long id, double lat, double lon, Tags tags) {
+
+    // Seules les clés utilisées par les types de points d'intérêt sont lues
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Tags(String name, String amenity, String shop, String tourism) {
+
+        public String get(String key) {
+            switch (key) {
+                case "name": return name;
+                case "amenity": return amenity;
+                case "shop": return shop;
+                case "tourism": return tourism;
+                default: return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package fr.weathermap.services;
+
+import fr.weathermap.utils.PackedMask;
+
+/**
+ * Masque de pluie nettoyé d'une frame radar, géoréférencé : le pixel (0, 0) est le
+ * coin nord-ouest de la tuile XYZ (xTileMin, yTileMin) au niveau {@code zoom}.
+ * Permet de tester la pluie en un point sans repasser par les polygones.
+ */
+public final class RadarMask {
+
+    private final PackedMask mask;
+    private final int zoom;
+    private final int xTileMin;
+    private final int yTileMin;
+    private final int tileSize;
+
+    public RadarMask(PackedMask mask, int zoom, int xTileMin, int yTileMin, int tileSize) {
+        this.mask = mask;
+        this.zoom = zoom;
+        this.xTileMin = xTileMin;
+        this.yTileMin = yTileMin;
+        this.tileSize = tileSize;
+    }
+
+    public PackedMask getMask() {
+        return mask;
+    }
+
+    public int getZoom() {
+        return zoom;
+    }
+
+    public int getXTileMin() {
+        return xTileMin;
+    }
+
+    public int getYTileMin() {
+        return yTileMin;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    // Colonne du pixel contenant la longitude (peut sortir du masque)
+    public int pixelX(double lon) {
+        double mapSize = (double) tileSize * (1L << zoom);
+        return (int) Math.floor((lon + 180.0) / 360.0 * mapSize) - xTileMin * tileSize;
+    }
+
+    // Ligne du pixel contenant la latitude (Web Mercator, peut sortir du masque)
+    public int pixelY(double lat) {
+        double mapSize = (double) tileSize * (1L << zoom);
+        double rad = Math.toRadians(lat);
+        double y = (1 - Math.log(Math.tan(rad) + 1 / Math.cos(rad)) / Math.PI) / 2 * mapSize;
+        return (int) Math.floor(y) - yTileMin * tileSize;
+    }
+
+    /**
+     * Pluie au point donné ; hors de l'emprise du masque, on considère qu'il ne pleut pas.
+     */
+    public boolean isRainingAt(double lat, double lon) {
+        return mask.get(pixelX(lon), pixelY(lat));
+    }
+}
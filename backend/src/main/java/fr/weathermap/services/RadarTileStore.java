@@ -0,0 +1,222 @@
+package fr.weathermap.services;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import fr.weathermap.utils.SingleFlight;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Stockage disque des tuiles radar relayées : un fichier en ajout seul par frame,
+ * découpé en segments de taille fixe projetés en mémoire (mmap). Une tuile lue est
+ * renvoyée comme tranche en lecture seule du segment, sans copie dans le tas.
+ *
+ * Chaque enregistrement est [longueur clé][longueur données][clé][données] : l'index
+ * (clé -> position) est reconstruit en parcourant le fichier au redémarrage. Les
+ * téléchargements concurrents d'une même tuile absente sont fusionnés, et les frames
+ * sorties du catalogue sont supprimées en bloc ({@link #retainFrames}).
+ */
+@Service
+public class RadarTileStore {
+
+    private static final int RECORD_HEADER = 8;
+
+    private final Path dir;
+    private final int segmentBytes;
+
+    private final Map<String, FrameFile> frames = new ConcurrentHashMap<>();
+    private final SingleFlight<String, ByteBuffer> downloads = new SingleFlight<>();
+
+    public RadarTileStore(@Value("${rain.tiles.store-dir:}") String dir,
+                          @Value("${rain.tiles.segment-mb:16}") int segmentMb) {
+        this.dir = (dir == null || dir.isBlank())
+                ? Paths.get(System.getProperty("java.io.tmpdir"), "weathermap-radar-tiles")
+                : Paths.get(dir);
+        this.segmentBytes = Math.max(1, segmentMb) << 20;
+    }
+
+    @PreDestroy
+    void close() {
+        for (FrameFile f : frames.values()) f.close();
+        frames.clear();
+    }
+
+    /**
+     * Tuile {@code tileKey} de la frame {@code frameId}, lue sur disque ou chargée via
+     * {@code loader} puis ajoutée au fichier de la frame.
+     *
+     * @return tranche en lecture seule, ou null si {@code loader} ne renvoie rien (non stocké)
+     */
+    public ByteBuffer get(String frameId, String tileKey, Callable<byte[]> loader) throws IOException {
+        FrameFile file = frame(frameId);
+        ByteBuffer hit = file.read(tileKey);
+        if (hit != null) return hit;
+
+        try {
+            return downloads.execute(frameId + "|" + tileKey, () -> {
+                ByteBuffer value = file.read(tileKey);
+                if (value != null) return value;
+                byte[] data = loader.call();
+                return (data == null) ? null : file.append(tileKey, data);
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (IllegalStateException e) {
+            throw new IOException("Tile load failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Supprime les fichiers des frames absentes de {@code frameIds} (frames sorties du catalogue),
+     * y compris ceux laissés par une exécution précédente.
+     */
+    public void retainFrames(Collection<String> frameIds) {
+        Set<String> keep = new HashSet<>();
+        for (String id : frameIds) keep.add(fileName(id));
+
+        for (Map.Entry<String, FrameFile> e : frames.entrySet()) {
+            if (!keep.contains(fileName(e.getKey())) && frames.remove(e.getKey(), e.getValue())) {
+                e.getValue().close();
+            }
+        }
+        if (!Files.isDirectory(dir)) return;
+        try (var files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                String name = p.getFileName().toString();
+                if (name.endsWith(".tiles") && !keep.contains(name)) {
+                    Files.deleteIfExists(p);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Radar tile store cleanup failed: " + e.getMessage());
+        }
+    }
+
+    private FrameFile frame(String frameId) throws IOException {
+        try {
+            return frames.computeIfAbsent(frameId, id -> {
+                try {
+                    Files.createDirectories(dir);
+                    return new FrameFile(dir.resolve(fileName(id)), segmentBytes);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Chemin de frame RainViewer ("/v2/radar/1700000000") -> nom de fichier sûr
+    private static String fileName(String frameId) {
+        return frameId.replaceAll("[^A-Za-z0-9_-]", "_") + ".tiles";
+    }
+
+    /* ==================== FICHIER D'UNE FRAME ==================== */
+
+    private static final class FrameFile {
+        final Path path;
+        final FileChannel channel;
+        final int segmentBytes;
+        final List<MappedByteBuffer> segments = new CopyOnWriteArrayList<>();
+        // Clé -> {segment, position des données, longueur}
+        final Map<String, int[]> index = new ConcurrentHashMap<>();
+        int writePos;       // position d'écriture dans le dernier segment
+        boolean closed;
+
+        FrameFile(Path path, int segmentBytes) throws IOException {
+            this.path = path;
+            this.segmentBytes = segmentBytes;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long size = channel.size();
+            if (size % segmentBytes != 0) {
+                // Taille de segment modifiée depuis l'écriture : on repart d'un fichier vide
+                channel.truncate(0);
+                size = 0;
+            }
+            for (long off = 0; off < size; off += segmentBytes) {
+                segments.add(channel.map(FileChannel.MapMode.READ_WRITE, off, segmentBytes));
+                writePos = scan(segments.size() - 1);
+            }
+        }
+
+        // Reconstruit l'index d'un segment ; renvoie la fin des enregistrements
+        private int scan(int segment) {
+            MappedByteBuffer buf = segments.get(segment);
+            int pos = 0;
+            while (pos + RECORD_HEADER <= segmentBytes) {
+                int keyLen = buf.getInt(pos);
+                int dataLen = buf.getInt(pos + 4);
+                if (keyLen <= 0 || dataLen < 0 || pos + RECORD_HEADER + keyLen + dataLen > segmentBytes) break;
+                byte[] key = new byte[keyLen];
+                buf.get(pos + RECORD_HEADER, key);
+                index.put(new String(key, StandardCharsets.UTF_8),
+                        new int[]{segment, pos + RECORD_HEADER + keyLen, dataLen});
+                pos += RECORD_HEADER + keyLen + dataLen;
+            }
+            return pos;
+        }
+
+        ByteBuffer read(String key) {
+            int[] loc = index.get(key);
+            if (loc == null) return null;
+            return segments.get(loc[0]).slice(loc[1], loc[2]).asReadOnlyBuffer();
+        }
+
+        synchronized ByteBuffer append(String key, byte[] data) throws IOException {
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            int recordLen = RECORD_HEADER + keyBytes.length + data.length;
+            // Frame évincée entre-temps, ou tuile plus grande qu'un segment : servie sans être stockée
+            if (closed || recordLen > segmentBytes) return ByteBuffer.wrap(data).asReadOnlyBuffer();
+
+            if (segments.isEmpty() || writePos + recordLen > segmentBytes) {
+                long offset = (long) segments.size() * segmentBytes;
+                segments.add(channel.map(FileChannel.MapMode.READ_WRITE, offset, segmentBytes));
+                writePos = 0;
+            }
+            int segment = segments.size() - 1;
+            MappedByteBuffer buf = segments.get(segment);
+            int dataPos = writePos + RECORD_HEADER + keyBytes.length;
+            buf.put(writePos + RECORD_HEADER, keyBytes);
+            buf.put(dataPos, data);
+            // En-tête écrit en dernier : un arrêt brutal laisse des zéros, où le parcours s'arrête
+            buf.putInt(writePos + 4, data.length);
+            buf.putInt(writePos, keyBytes.length);
+            writePos += recordLen;
+            // Publication après écriture complète : un lecteur ne voit jamais d'enregistrement partiel
+            index.put(key, new int[]{segment, dataPos, data.length});
+            return buf.slice(dataPos, data.length).asReadOnlyBuffer();
+        }
+
+        synchronized void close() {
+            if (closed) return;
+            closed = true;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Radar tile store close failed for " + path + ": " + e.getMessage());
+            }
+        }
+    }
+}
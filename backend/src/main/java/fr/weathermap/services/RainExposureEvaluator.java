@@ -0,0 +1,82 @@
+package fr.weathermap.services;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Exposition d'un itinéraire à la pluie, évaluée directement sur les masques radar :
+ * le tracé est échantillonné aux positions estimées du véhicule (via sa
+ * {@link RouteTimeline}) et chaque échantillon est testé dans la frame valable à cet
+ * instant. Aucun polygone n'est construit ; le coût est proportionnel au nombre
+ * d'échantillons.
+ */
+@Service
+public class RainExposureEvaluator {
+
+    // Espacement maximal (mètres) entre deux échantillons le long du tracé
+    @Value("${routing.rain.sample-meters:100}")
+    private double sampleMeters = 100;
+
+    public record FrameExposure(long frameTime, double seconds, double meters) {
+    }
+
+    /**
+     * @param seconds temps total passé sous la pluie
+     * @param meters  distance totale parcourue sous la pluie
+     * @param frames  détail par frame (dans l'ordre des frames fournies)
+     */
+    public record Exposure(double seconds, double meters, List<FrameExposure> frames) {
+    }
+
+    /**
+     * @param frames       frames chronologiques ; la frame i couvre [i * frameSeconds, (i + 1) * frameSeconds[
+     *                     depuis le départ, la dernière restant valable au-delà
+     */
+    public Exposure evaluate(RouteTimeline timeline,
+                             List<RainViewerRadarPolygonService.RainPolygonsResult> frames,
+                             double frameSeconds) {
+        int frameCount = frames.size();
+        double[] seconds = new double[frameCount];
+        double[] meters = new double[frameCount];
+
+        List<List<Double>> shape = timeline.getShapeLatLon();
+        if (frameCount > 0) {
+            for (int k = 0; k + 1 < shape.size(); k++) {
+                double t0 = timeline.timeAt(k);
+                double dt = timeline.timeAt(k + 1) - t0;
+                double dd = timeline.distanceAt(k + 1) - timeline.distanceAt(k);
+                if (dt <= 0 && dd <= 0) continue;
+                List<Double> a = shape.get(k);
+                List<Double> b = shape.get(k + 1);
+
+                // Échantillons au milieu de pièces d'au plus sampleMeters
+                int pieces = Math.max(1, (int) Math.ceil(dd / Math.max(1.0, sampleMeters)));
+                for (int j = 0; j < pieces; j++) {
+                    double f = (j + 0.5) / pieces;
+                    int frame = (int) Math.min(frameCount - 1, Math.floor((t0 + dt * f) / frameSeconds));
+                    RadarMask mask = frames.get(frame).mask;
+                    if (mask == null) continue;
+                    double lat = a.get(0) + (b.get(0) - a.get(0)) * f;
+                    double lon = a.get(1) + (b.get(1) - a.get(1)) * f;
+                    if (mask.isRainingAt(lat, lon)) {
+                        seconds[frame] += dt / pieces;
+                        meters[frame] += dd / pieces;
+                    }
+                }
+            }
+        }
+
+        List<FrameExposure> perFrame = new ArrayList<>(frameCount);
+        double totalSeconds = 0.0;
+        double totalMeters = 0.0;
+        for (int i = 0; i < frameCount; i++) {
+            perFrame.add(new FrameExposure(frames.get(i).frameTime, seconds[i], meters[i]));
+            totalSeconds += seconds[i];
+            totalMeters += meters[i];
+        }
+        return new Exposure(totalSeconds, totalMeters, perFrame);
+    }
+}
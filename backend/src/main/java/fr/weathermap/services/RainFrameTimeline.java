@@ -0,0 +1,82 @@
+package fr.weathermap.services;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import fr.weathermap.utils.PackedMask;
+
+/**
+ * Timeline radar encodée en différences : deux frames successives étant presque
+ * identiques, seule la première (frame clé) transporte son masque complet ; les
+ * suivantes ne transportent que les séquences de pixels apparues ("added") et
+ * disparues ("removed") depuis la précédente.
+ *
+ * Les séquences sont des triplets plats [y, x, longueur, ...] en pixels du masque
+ * (voir {@link PackedMask#runs()}). Une nouvelle frame clé est émise dès que
+ * l'emprise change (zoom ou tuiles différents). {@code age} est l'âge (secondes) du
+ * catalogue RainViewer dont proviennent les frames.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record RainFrameTimeline(List<Frame> frames, long age) {
+
+    /**
+     * Emprise d'une frame clé : le pixel (0, 0) est le coin nord-ouest de la tuile XYZ
+     * (xTileMin, yTileMin) au niveau {@code zoom}.
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Geometry(int zoom, int xTileMin, int yTileMin, int tileSize, int width, int height) {
+    }
+
+    /**
+     * @param geometry non null pour une frame clé, dont {@code runs} est alors le masque complet
+     * @param added    frame différentielle : séquences allumées depuis la frame précédente
+     * @param removed  frame différentielle : séquences éteintes depuis la frame précédente
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Frame(long frameTime, Geometry geometry, int[] runs, int[] added, int[] removed) {
+        @JsonIgnore
+        public boolean isKey() {
+            return geometry != null;
+        }
+    }
+
+    /**
+     * Encode des frames chronologiques ; celles sans masque (aucune frame radar) sont ignorées.
+     */
+    public static RainFrameTimeline encode(List<RainViewerRadarPolygonService.RainPolygonsResult> results, long age) {
+        List<Frame> frames = new ArrayList<>(results.size());
+        RadarMask previous = null;
+        for (RainViewerRadarPolygonService.RainPolygonsResult r : results) {
+            RadarMask current = r.mask;
+            if (current == null) continue;
+            if (previous == null || !sameGeometry(previous, current)) {
+                frames.add(new Frame(r.frameTime, geometryOf(current), current.getMask().runs(), null, null));
+            } else {
+                PackedMask cur = current.getMask();
+                PackedMask prev = previous.getMask();
+                frames.add(new Frame(r.frameTime, null, null, cur.runsAndNot(prev), prev.runsAndNot(cur)));
+            }
+            previous = current;
+        }
+        return new RainFrameTimeline(frames, age);
+    }
+
+    private static boolean sameGeometry(RadarMask a, RadarMask b) {
+        return a.getZoom() == b.getZoom()
+                && a.getXTileMin() == b.getXTileMin()
+                && a.getYTileMin() == b.getYTileMin()
+                && a.getTileSize() == b.getTileSize()
+                && a.getMask().getWidth() == b.getMask().getWidth()
+                && a.getMask().getHeight() == b.getMask().getHeight();
+    }
+
+    private static Geometry geometryOf(RadarMask m) {
+        return new Geometry(m.getZoom(), m.getXTileMin(), m.getYTileMin(), m.getTileSize(),
+                m.getMask().getWidth(), m.getMask().getHeight());
+    }
+}
@@ -5,6 +5,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import java.net.http.*;
 import java.io.IOException;
 import java.net.URI;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 
@@ -13,7 +14,9 @@ public class RainViewerCatalog {
     private static final String CATALOG_URL =
             "https://api.rainviewer.com/public/weather-maps.json";
 
-    private final HttpClient http = HttpClient.newHttpClient();
+    private final HttpClient http = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(3))
+            .build();
     private final ObjectMapper om = new ObjectMapper();
 
     public static class Frame {
@@ -28,8 +31,14 @@ public class RainViewerCatalog {
     }
 
     public Catalog fetch() throws IOException, InterruptedException {
-        HttpRequest req = HttpRequest.newBuilder().uri(URI.create(CATALOG_URL)).build();
+        HttpRequest req = HttpRequest.newBuilder()
+                .uri(URI.create(CATALOG_URL))
+                .timeout(Duration.ofSeconds(5))
+                .build();
         HttpResponse<String> resp = http.send(req, HttpResponse.BodyHandlers.ofString());
+        if (resp.statusCode() != 200) {
+            throw new IOException("RainViewer catalog HTTP " + resp.statusCode());
+        }
         JsonNode root = om.readTree(resp.body());
         Catalog c = new Catalog();
         c.host = root.get("host").asText();
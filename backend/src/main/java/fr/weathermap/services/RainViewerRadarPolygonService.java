@@ -1,16 +1,37 @@
 package fr.weathermap.services;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import fr.weathermap.utils.CircuitBreaker;
 import fr.weathermap.utils.DouglasPeucker;
+import fr.weathermap.utils.ExpiringCache;
+import fr.weathermap.utils.MvtEncoder;
+import fr.weathermap.utils.PackedMask;
+import fr.weathermap.utils.SingleFlight;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.net.http.*;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import jakarta.annotation.PreDestroy;
 
 /**
  * Génère des polygones de zones de pluie depuis les tuiles RainViewer.
@@ -22,6 +43,10 @@ import java.util.*;
  *  - CLOSEST_TO_TIMESTAMP : frame (past ou nowcast) la plus proche d'un timestamp UNIX fourni
  *
  * Les polygones sont fusionnés par composante connexe (contour unique).
+ *
+ * Avant le traçage des contours, le masque compacté passe par une étape de nettoyage
+ * configurable : seuil d'intensité (dBZ), fermeture morphologique puis suppression
+ * des composantes trop petites (bruit radar, bruine isolée).
  */
 @Service
 public class RainViewerRadarPolygonService {
@@ -44,10 +69,17 @@ public class RainViewerRadarPolygonService {
         public final List<List<List<Double>>> polygons;
         public final long frameTime;      // UNIX seconds
         public final TimeMode modeUsed;
+        // Masque nettoyé ayant servi à tracer les polygones (null si aucune frame)
+        public final RadarMask mask;
         public RainPolygonsResult(List<List<List<Double>>> polygons, long frameTime, TimeMode modeUsed) {
+            this(polygons, frameTime, modeUsed, null);
+        }
+
+        public RainPolygonsResult(List<List<List<Double>>> polygons, long frameTime, TimeMode modeUsed, RadarMask mask) {
             this.polygons = polygons;
             this.frameTime = frameTime;
             this.modeUsed = modeUsed;
+            this.mask = mask;
         }
 
         public List<List<List<Double>>> getSimplifiedPolygons() {
@@ -61,16 +93,113 @@ public class RainViewerRadarPolygonService {
     }
 
     private final RainViewerCatalog catalog = new RainViewerCatalog();
+
+    // Absent hors contexte Spring (démo main) : les tuiles sont alors relayées sans stockage
+    @Autowired(required = false)
+    private RadarTileStore tileStore;
     private final HttpClient http = HttpClient.newBuilder()
             .version(HttpClient.Version.HTTP_2)
             .build();
 
     private static final int MAX_TILES = 180;
     private static final int TILE_SIZE = 256;
+    private static final double MAX_MERCATOR_LAT = 85.05112878;
     private static final int COLOR_SCHEME = 2;      // Universal Blue
     private static final int SMOOTH = 1;
     private static final int SNOW = 1;
     private static final String EXT = "png";
+    private static final int COLOR_SCHEME_DBZ = 0;   // Noir et blanc : valeurs dBZ brutes
+
+    // Frames d'une même timeline calculées en parallèle (téléchargement des tuiles + contours)
+    private static final int FRAME_THREADS = 4;
+    private final ExecutorService frameExecutor = Executors.newFixedThreadPool(FRAME_THREADS, r -> {
+        Thread t = new Thread(r, "rain-frames");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Seuil d'intensité minimal (dBZ). 0 = désactivé : tout pixel non transparent est de la pluie.
+    @Value("${rain.mask.min-dbz:0}")
+    private int minDbz = 0;
+
+    // Rayon (pixels) de la fermeture morphologique. 0 = désactivée.
+    @Value("${rain.mask.closing-radius:1}")
+    private int closingRadius = 1;
+
+    // Surface minimale (pixels) d'une composante conservée. <= 1 = désactivé.
+    @Value("${rain.mask.min-component-area:8}")
+    private int minComponentArea = 8;
+
+    @PreDestroy
+    void shutdown() {
+        frameExecutor.shutdownNow();
+    }
+
+    // Tuiles vectorielles par frame ; la clé commence par le chemin de la frame, propre à chaque génération
+    private static final int MVT_CACHE_ENTRIES = 4096;
+    private static final long MVT_CACHE_TTL_MS = 3 * 60 * 60 * 1000L;
+    private final ExpiringCache<String, byte[]> vectorTileCache = new ExpiringCache<>(MVT_CACHE_ENTRIES);
+
+    // Frames calculées par emprise en tuiles ; clé "chemin de frame|emprise" (masques de quelques centaines de Ko)
+    private static final int REGION_CACHE_ENTRIES = 64;
+    private static final long REGION_CACHE_TTL_MS = 15 * 60 * 1000L;
+    private final ExpiringCache<String, RainPolygonsResult> regionCache = new ExpiringCache<>(REGION_CACHE_ENTRIES);
+    private final SingleFlight<String, RainPolygonsResult> regionComputations = new SingleFlight<>();
+
+    // Catalogue gardé brièvement : RainViewer ne publie une nouvelle frame que toutes les 10 minutes.
+    // En cas de panne, le dernier catalogue reste servi jusqu'à CATALOG_MAX_STALE_MS.
+    private static final long CATALOG_TTL_MS = 30_000L;
+    private static final long CATALOG_MAX_STALE_MS = 2 * 60 * 60 * 1000L;
+
+    private record CatalogSnapshot(RainViewerCatalog.Catalog catalog, long fetchedAt) {
+    }
+
+    private volatile CatalogSnapshot catalogSnapshot;
+    private final AtomicBoolean catalogRefreshing = new AtomicBoolean();
+    private final SingleFlight<String, RainViewerCatalog.Catalog> catalogLoads = new SingleFlight<>();
+
+    // Disjoncteurs par service amont : API (catalogue) et serveur de tuiles RainViewer
+    private static final int BREAKER_FAILURES = 5;
+    private static final long BREAKER_OPEN_MS = 30_000L;
+    private final CircuitBreaker catalogBreaker = new CircuitBreaker("rainviewer-api", BREAKER_FAILURES, BREAKER_OPEN_MS);
+    private final CircuitBreaker tileBreaker = new CircuitBreaker("rainviewer-tiles", BREAKER_FAILURES, BREAKER_OPEN_MS);
+
+    /**
+     * Tuile d'une frame, résolue dans le catalogue sans encore la télécharger.
+     * {@code past} indique une observation, dont le contenu ne change plus (les prévisions
+     * d'un même horodatage sont recalculées à chaque mise à jour du catalogue).
+     */
+    public record FrameTileRef(String host, RainViewerCatalog.Frame frame, int z, int x, int y, boolean past) {
+        public long frameTime() {
+            return frame.time;
+        }
+
+        /**
+         * ETag fort : le chemin de frame identifie une génération de données, le contenu
+         * d'une adresse (frame, tuile, variante) ne change donc jamais.
+         */
+        public String etag(String variant) {
+            return "\"" + frame.path + "/" + z + "/" + x + "/" + y + "/" + variant + "\"";
+        }
+    }
+
+    /**
+     * Paramètres de rendu RainViewer d'une tuile PNG ; null = valeur par défaut
+     * (tileSize=256, colorScheme=2, smooth=1, snow=1).
+     */
+    public record TileStyle(int tileSize, int colorScheme, int smooth, int snow) {
+        public static TileStyle of(Integer tileSize, Integer colorScheme, Integer smooth, Integer snow) {
+            return new TileStyle(
+                    (tileSize != null) ? tileSize : 256,
+                    (colorScheme != null) ? colorScheme : 2,
+                    (smooth != null) ? smooth : 1,
+                    (snow != null) ? snow : 1);
+        }
+
+        public String key() {
+            return tileSize + "/" + colorScheme + "/" + smooth + "_" + snow + ".png";
+        }
+    }
 
     /* ==================== API PUBLIQUE ==================== */
 
@@ -94,17 +223,30 @@ public class RainViewerRadarPolygonService {
                                                 int index,
                                                 Long targetTimestamp) throws IOException, InterruptedException {
 
-        normalizeBBoxRef(topLat, leftLon, bottomLat, rightLon);
-        double nTopLat = normTopLat;
-        double nLeftLon = normLeftLon;
-        double nBottomLat = normBottomLat;
-        double nRightLon = normRightLon;
-
-        RainViewerCatalog.Catalog cat = catalog.fetch();
+        RainViewerCatalog.Catalog cat = fetchCatalog();
         RainViewerCatalog.Frame frame = selectFrame(cat, mode, index, targetTimestamp);
         if (frame == null) {
             return new RainPolygonsResult(List.of(), 0L, mode);
         }
+        return computeFrame(cat, frame, mode, normalizeBBox(topLat, leftLon, bottomLat, rightLon));
+    }
+
+    /**
+     * Emprise alignée sur la grille des tuiles radar au niveau {@code zoom} : deux requêtes
+     * voisines tombant dans les mêmes tuiles partagent le même calcul.
+     */
+    private record TileRegion(int zoom, int xMin, int xMax, int yMin, int yMax) {
+        String key() {
+            return zoom + "/" + xMin + "-" + xMax + "/" + yMin + "-" + yMax;
+        }
+    }
+
+    // bbox = {nord, ouest, sud, est} déjà normalisée
+    private TileRegion tileRegion(double[] bbox) {
+        double nTopLat = bbox[0];
+        double nLeftLon = bbox[1];
+        double nBottomLat = bbox[2];
+        double nRightLon = bbox[3];
 
         int zoom = chooseZoom(nTopLat, nLeftLon, nBottomLat, nRightLon);
         int xMin = lonToTileX(nLeftLon, zoom);
@@ -123,35 +265,122 @@ public class RainViewerRadarPolygonService {
                 tiles = (xMax - xMin + 1) * (yMax - yMin + 1);
             }
         }
+        return new TileRegion(zoom, xMin, xMax, yMin, yMax);
+    }
 
-        int totalWidth = (xMax - xMin + 1) * TILE_SIZE;
-        int totalHeight = (yMax - yMin + 1) * TILE_SIZE;
-        boolean[][] mask = new boolean[totalHeight][totalWidth];
+    /**
+     * Masque et polygones d'une frame pour une bbox : le masque est calculé sur l'emprise en
+     * tuiles qui la contient (mis en cache par frame et emprise), puis recadré à la bbox
+     * avant l'extraction des contours. Le masque renvoyé couvre toute l'emprise.
+     *
+     * @throws InterruptedException si le thread est interrompu pendant le calcul (aucun résultat partiel)
+     */
+    private RainPolygonsResult computeFrame(RainViewerCatalog.Catalog cat,
+                                            RainViewerCatalog.Frame frame,
+                                            TimeMode mode,
+                                            double[] bbox) throws IOException, InterruptedException {
+        TileRegion region = tileRegion(bbox);
+        String key = frame.path + "|" + region.key();
+        RainPolygonsResult full = regionCache.getIfPresent(key);
+        if (full == null) {
+            // Requêtes simultanées sur la même emprise (afflux lors d'un orage) : un seul calcul
+            full = computeShared(key, () -> {
+                RainPolygonsResult cached = regionCache.getIfPresent(key);
+                if (cached != null) return cached;
+                RegionResult computed = computeRegion(cat, frame, region);
+                if (computed.downloaded() == computed.tiles()) {
+                    regionCache.put(key, computed.result(), System.currentTimeMillis() + REGION_CACHE_TTL_MS);
+                    return computed.result();
+                }
+                // Tuiles manquantes (amont indisponible) : dernier résultat complet de cette emprise s'il existe
+                RainPolygonsResult stale = regionCache.getStale(key);
+                if (stale != null) return stale;
+                if (computed.downloaded() == 0) {
+                    throw new IOException("Radar tiles unavailable for region " + region.key());
+                }
+                return computed.result();
+            });
+        }
+        return new RainPolygonsResult(polygonsInBBox(full.mask, bbox), frame.time, mode, full.mask);
+    }
+
+    // Contours de la partie du masque couvrant la bbox (pixels entamés inclus). Recadrer le masque
+    // plutôt que découper les polygones évite les ponts d'épaisseur nulle le long du bord.
+    private List<List<List<Double>>> polygonsInBBox(RadarMask region, double[] bbox) {
+        PackedMask mask = region.getMask();
+        int x0 = Math.max(0, region.pixelX(bbox[1]));
+        int x1 = Math.min(mask.getWidth(), region.pixelX(bbox[3]) + 1);
+        int y0 = Math.max(0, region.pixelY(clampMercatorLat(bbox[0])));
+        int y1 = Math.min(mask.getHeight(), region.pixelY(clampMercatorLat(bbox[2])) + 1);
+        if (x0 >= x1 || y0 >= y1) return List.of();
+        return maskToMergedPolygons(mask.crop(x0, y0, x1 - x0, y1 - y0), region.getZoom(),
+                region.getXTileMin() * TILE_SIZE + x0, region.getYTileMin() * TILE_SIZE + y0);
+    }
+
+    private static double clampMercatorLat(double lat) {
+        return Math.max(-MAX_MERCATOR_LAT, Math.min(MAX_MERCATOR_LAT, lat));
+    }
+
+    // Calcul partagé d'une emprise ; rend à l'appelant les exceptions vérifiées du calcul
+    private RainPolygonsResult computeShared(String key, Callable<RainPolygonsResult> compute)
+            throws IOException, InterruptedException {
+        try {
+            return regionComputations.execute(key, compute);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (IllegalStateException e) {
+            if (e.getCause() instanceof InterruptedException) {
+                throw (InterruptedException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // Calcul d'une emprise ; downloaded < tiles si des tuiles manquent (comptées comme sèches).
+    // Une interruption n'est pas une tuile manquante : elle interrompt tout le calcul.
+    private record RegionResult(RainPolygonsResult result, int tiles, int downloaded) {
+    }
 
-        for (int xt = xMin; xt <= xMax; xt++) {
-            for (int yt = yMin; yt <= yMax; yt++) {
+    private RegionResult computeRegion(RainViewerCatalog.Catalog cat,
+                                       RainViewerCatalog.Frame frame,
+                                       TileRegion region) throws InterruptedException {
+        int zoom = region.zoom();
+        int xMin = region.xMin();
+        int yMin = region.yMin();
+        int totalWidth = (region.xMax() - xMin + 1) * TILE_SIZE;
+        int totalHeight = (region.yMax() - yMin + 1) * TILE_SIZE;
+        PackedMask mask = new PackedMask(totalWidth, totalHeight);
+        int scheme = maskColorScheme();
+        int downloaded = 0;
+
+        for (int xt = xMin; xt <= region.xMax(); xt++) {
+            for (int yt = yMin; yt <= region.yMax(); yt++) {
                 String url = catalog.buildTileUrl(
                         cat.host, frame, zoom, xt, yt,
-                        TILE_SIZE, COLOR_SCHEME, SMOOTH, SNOW, EXT
+                        TILE_SIZE, scheme, SMOOTH, SNOW, EXT
                 );
                 BufferedImage img = downloadTile(url);
                 if (img == null) continue;
+                downloaded++;
                 int offsetX = (xt - xMin) * TILE_SIZE;
                 int offsetY = (yt - yMin) * TILE_SIZE;
 
                 for (int py = 0; py < TILE_SIZE; py++) {
                     for (int px = 0; px < TILE_SIZE; px++) {
-                        int argb = img.getRGB(px, py);
-                        int alpha = (argb >>> 24) & 0xFF;
-                        if (alpha == 0) continue;
-                        mask[offsetY + py][offsetX + px] = true;
+                        if (isRainPixel(img.getRGB(px, py), scheme)) {
+                            mask.set(offsetX + px, offsetY + py);
+                        }
                     }
                 }
             }
         }
 
-        List<List<List<Double>>> polygons = maskToMergedPolygons(mask, zoom, xMin, yMin);
-        return new RainPolygonsResult(polygons, frame.time, mode);
+        cleanMask(mask);
+        // Contours extraits par requête, sur le masque recadré (voir polygonsInBBox)
+        RainPolygonsResult result = new RainPolygonsResult(List.of(), frame.time, null,
+                new RadarMask(mask, zoom, xMin, yMin, TILE_SIZE));
+        int tiles = (region.xMax() - xMin + 1) * (region.yMax() - yMin + 1);
+        return new RegionResult(result, tiles, downloaded);
     }
 
     // Vérifier pluie à un point pour un mode/temps donné
@@ -160,7 +389,7 @@ public class RainViewerRadarPolygonService {
                                int index,
                                Long targetTimestamp) throws IOException, InterruptedException {
         if (lat < -90 || lat > 90 || lon < -180 || lon > 180) return false;
-        RainViewerCatalog.Catalog cat = catalog.fetch();
+        RainViewerCatalog.Catalog cat = fetchCatalog();
         RainViewerCatalog.Frame frame = selectFrame(cat, mode, index, targetTimestamp);
         if (frame == null) return false;
         int zoom = 9;
@@ -177,9 +406,10 @@ public class RainViewerRadarPolygonService {
 
         if (tileX < 0 || tileX >= n || tileY < 0 || tileY >= n) return false;
 
+        int scheme = maskColorScheme();
         String url = catalog.buildTileUrl(
                 cat.host, frame, zoom, tileX, tileY,
-                TILE_SIZE, COLOR_SCHEME, SMOOTH, SNOW, EXT
+                TILE_SIZE, scheme, SMOOTH, SNOW, EXT
         );
         BufferedImage img = downloadTile(url);
         if (img == null) return false;
@@ -189,9 +419,7 @@ public class RainViewerRadarPolygonService {
         if (px < 0) px = 0; if (px >= TILE_SIZE) px = TILE_SIZE - 1;
         if (py < 0) py = 0; if (py >= TILE_SIZE) py = TILE_SIZE - 1;
 
-        int argb = img.getRGB(px, py);
-        int alpha = (argb >>> 24) & 0xFF;
-        return alpha > 0;
+        return isRainPixel(img.getRGB(px, py), scheme);
     }
 
     // Surcharge simple (comportement historique)
@@ -215,25 +443,7 @@ public class RainViewerRadarPolygonService {
                                                        double rightLon) throws IOException, InterruptedException {
         
         List<RainPolygonsResult> results = new ArrayList<>();
-        RainViewerCatalog.Catalog cat = catalog.fetch();
-        
-        // Traitement des frames passées
-        for (int i = 0; i < cat.past.size(); i++) {
-            RainPolygonsResult result = fetchRainPolygons(
-                topLat, leftLon, bottomLat, rightLon, 
-                TimeMode.PAST_INDEX, i, null
-            );
-            results.add(result);
-        }
-        
-        // Traitement des prévisions (nowcast)
-        for (int i = 0; i < cat.nowcast.size(); i++) {
-            RainPolygonsResult result = fetchRainPolygons(
-                topLat, leftLon, bottomLat, rightLon,
-                TimeMode.FUTURE_INDEX, i, null
-            );
-            results.add(result);
-        }
+        streamAllRainPolygons(topLat, leftLon, bottomLat, rightLon, results::add);
         
         // Tri chronologique par timestamp
         results.sort(Comparator.comparingLong(r -> r.frameTime));
@@ -241,6 +451,218 @@ public class RainViewerRadarPolygonService {
         return results;
     }
 
+    /**
+     * Calcule toutes les frames (passé puis prévisions) en parallèle et transmet chacune
+     * à {@code onFrame} dès qu'elle est prête, donc dans l'ordre d'achèvement et non
+     * chronologique. Le catalogue n'est lu qu'une fois. {@code onFrame} est appelé sur le
+     * thread appelant : s'il lève une exception, les frames restantes sont annulées.
+     *
+     * @return nombre de frames transmises
+     */
+    public int streamAllRainPolygons(double topLat,
+                                     double leftLon,
+                                     double bottomLat,
+                                     double rightLon,
+                                     Consumer<RainPolygonsResult> onFrame) throws IOException, InterruptedException {
+        RainViewerCatalog.Catalog cat = fetchCatalog();
+        if (cat == null || cat.past.isEmpty()) return 0;
+        double[] bbox = normalizeBBox(topLat, leftLon, bottomLat, rightLon);
+
+        CompletionService<RainPolygonsResult> completion = new ExecutorCompletionService<>(frameExecutor);
+        List<Future<RainPolygonsResult>> pending = new ArrayList<>();
+        for (RainViewerCatalog.Frame frame : cat.past) {
+            pending.add(completion.submit(() -> computeFrame(cat, frame, TimeMode.PAST_INDEX, bbox)));
+        }
+        for (RainViewerCatalog.Frame frame : cat.nowcast) {
+            pending.add(completion.submit(() -> computeFrame(cat, frame, TimeMode.FUTURE_INDEX, bbox)));
+        }
+
+        int delivered = 0;
+        try {
+            for (int i = 0; i < pending.size(); i++) {
+                onFrame.accept(completion.take().get());
+                delivered++;
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Rain frame computation failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            // Sans interruption : une frame en cours peut être le calcul partagé d'autres requêtes
+            // (même emprise) ; elle se termine et alimente le cache. Les frames non démarrées sont abandonnées.
+            for (Future<RainPolygonsResult> f : pending) f.cancel(false);
+        }
+        return delivered;
+    }
+
+    /**
+     * Horodatages (UNIX secondes) des frames disponibles, à utiliser dans les URL de tuiles par frame,
+     * et âge du catalogue ("age", secondes).
+     */
+    public Map<String, Object> listFrameTimes() throws IOException, InterruptedException {
+        RainViewerCatalog.Catalog cat = fetchCatalog();
+        Map<String, Object> times = new LinkedHashMap<>();
+        times.put("past", cat.past.stream().map(f -> f.time).toList());
+        times.put("nowcast", cat.nowcast.stream().map(f -> f.time).toList());
+        times.put("age", catalogAgeSeconds());
+        return times;
+    }
+
+    /**
+     * Résout une tuile d'une frame par son horodatage.
+     *
+     * @return null si la frame n'est plus au catalogue ou si l'adresse est invalide
+     */
+    public FrameTileRef resolveFrameTile(long frameTime, int z, int x, int y) throws IOException, InterruptedException {
+        if (z < 0 || z > 20) return null;
+        long n = 1L << z;
+        if (x < 0 || y < 0 || x >= n || y >= n) return null;
+
+        RainViewerCatalog.Catalog cat = fetchCatalog();
+        RainViewerCatalog.Frame frame = findFrame(cat, frameTime);
+        if (frame == null) return null;
+        return new FrameTileRef(cat.host, frame, z, x, y, cat.past.contains(frame));
+    }
+
+    /**
+     * Tuile PNG RainViewer d'une frame, via le stockage disque {@link RadarTileStore} :
+     * chaque tuile d'une frame n'est téléchargée qu'une fois.
+     *
+     * @return tranche en lecture seule du fichier de la frame, ou null si la tuile est indisponible
+     */
+    public ByteBuffer fetchFrameTile(FrameTileRef ref, TileStyle style) throws IOException, InterruptedException {
+        String url = catalog.buildTileUrl(ref.host(), ref.frame(), ref.z(), ref.x(), ref.y(),
+                style.tileSize(), style.colorScheme(), style.smooth(), style.snow(), "png");
+        if (tileStore == null) {
+            byte[] data = downloadTileBytes(url);
+            return (data == null) ? null : ByteBuffer.wrap(data).asReadOnlyBuffer();
+        }
+        String tileKey = ref.z() + "/" + ref.x() + "/" + ref.y() + "/" + style.key();
+        return tileStore.get(ref.frame().path, tileKey, () -> downloadTileBytes(url));
+    }
+
+    /**
+     * Tuile vectorielle (MVT, couche "rain") des contours de pluie d'une frame : la tuile
+     * radar de même adresse XYZ est nettoyée puis contourée, elle est donc déjà découpée
+     * à l'emprise de la tuile.
+     */
+    public byte[] fetchFrameVectorTile(FrameTileRef ref) {
+        String key = ref.frame().path + "/" + ref.z() + "/" + ref.x() + "/" + ref.y() + "/" + vectorTileVariant();
+        return vectorTileCache.get(key, System.currentTimeMillis() + MVT_CACHE_TTL_MS,
+                () -> buildVectorTile(ref.host(), ref.frame(), ref.z(), ref.x(), ref.y()));
+    }
+
+    /**
+     * Variante des tuiles vectorielles, pour leur ETag et leur clé de cache : elle change
+     * avec les réglages rain.mask.* et le schéma de couleurs lu, qui modifient le contenu.
+     */
+    public String vectorTileVariant() {
+        return "rain.mvt/c" + maskColorScheme() + "s" + SMOOTH + "n" + SNOW
+                + "-dbz" + minDbz + "-r" + closingRadius + "-a" + minComponentArea;
+    }
+
+    private byte[] buildVectorTile(String host, RainViewerCatalog.Frame frame,
+                                   int z, int x, int y) throws IOException, InterruptedException {
+        int scheme = maskColorScheme();
+        String url = catalog.buildTileUrl(host, frame, z, x, y, TILE_SIZE, scheme, SMOOTH, SNOW, EXT);
+        BufferedImage img = downloadTile(url);
+        // Pas de mise en cache d'une tuile vide faute d'image
+        if (img == null) throw new IOException("Radar tile unavailable: " + z + "/" + x + "/" + y);
+
+        PackedMask mask = new PackedMask(TILE_SIZE, TILE_SIZE);
+        int w = Math.min(TILE_SIZE, img.getWidth());
+        int h = Math.min(TILE_SIZE, img.getHeight());
+        for (int py = 0; py < h; py++) {
+            for (int px = 0; px < w; px++) {
+                if (isRainPixel(img.getRGB(px, py), scheme)) mask.set(px, py);
+            }
+        }
+        cleanMask(mask);
+        return MvtEncoder.polygonTile("rain", traceRings(mask), MvtEncoder.EXTENT / TILE_SIZE,
+                Map.of("frameTime", frame.time));
+    }
+
+    private static RainViewerCatalog.Frame findFrame(RainViewerCatalog.Catalog cat, long frameTime) {
+        for (RainViewerCatalog.Frame f : cat.past) {
+            if (f.time == frameTime) return f;
+        }
+        for (RainViewerCatalog.Frame f : cat.nowcast) {
+            if (f.time == frameTime) return f;
+        }
+        return null;
+    }
+
+    /* ==================== CATALOGUE ==================== */
+
+    /**
+     * Catalogue courant. Au-delà de {@code CATALOG_TTL_MS}, le dernier catalogue obtenu
+     * reste servi pendant qu'un rafraîchissement tourne en arrière-plan (stale-while-revalidate) ;
+     * au-delà de {@code CATALOG_MAX_STALE_MS}, ou s'il n'y en a pas encore, l'appel attend le
+     * rafraîchissement.
+     */
+    private RainViewerCatalog.Catalog fetchCatalog() throws IOException {
+        CatalogSnapshot snap = catalogSnapshot;
+        if (snap != null) {
+            long age = System.currentTimeMillis() - snap.fetchedAt();
+            if (age < CATALOG_TTL_MS) return snap.catalog();
+            if (age < CATALOG_MAX_STALE_MS) {
+                refreshCatalogInBackground();
+                return snap.catalog();
+            }
+        }
+        try {
+            return catalogLoads.execute("catalog", this::refreshCatalog);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Âge (secondes) du catalogue servi, -1 si aucun n'a encore été obtenu. Dépasse
+     * largement {@code CATALOG_TTL_MS} quand RainViewer est indisponible.
+     */
+    public long catalogAgeSeconds() {
+        CatalogSnapshot snap = catalogSnapshot;
+        return (snap == null) ? -1 : (System.currentTimeMillis() - snap.fetchedAt()) / 1000;
+    }
+
+    private void refreshCatalogInBackground() {
+        if (!catalogRefreshing.compareAndSet(false, true)) return;
+        try {
+            frameExecutor.execute(() -> {
+                try {
+                    catalogLoads.execute("catalog", this::refreshCatalog);
+                } catch (RuntimeException e) {
+                    System.err.println("RainViewer catalog refresh failed, serving stale catalog: " + e.getMessage());
+                } finally {
+                    catalogRefreshing.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            catalogRefreshing.set(false);
+        }
+    }
+
+    private RainViewerCatalog.Catalog refreshCatalog() throws IOException, InterruptedException {
+        if (!catalogBreaker.allowRequest()) throw catalogBreaker.openException();
+        RainViewerCatalog.Catalog cat;
+        try {
+            cat = catalog.fetch();
+        } catch (IOException | RuntimeException e) {
+            catalogBreaker.recordFailure();
+            throw e;
+        }
+        catalogBreaker.recordSuccess();
+        catalogSnapshot = new CatalogSnapshot(cat, System.currentTimeMillis());
+
+        // Les fichiers de tuiles des frames sorties du catalogue sont supprimés
+        if (tileStore != null && !cat.past.isEmpty()) {
+            List<String> framePaths = new ArrayList<>();
+            for (RainViewerCatalog.Frame f : cat.past) framePaths.add(f.path);
+            for (RainViewerCatalog.Frame f : cat.nowcast) framePaths.add(f.path);
+            tileStore.retainFrames(framePaths);
+        }
+        return cat;
+    }
+
     /* ==================== SÉLECTION DE FRAME ==================== */
 
     private RainViewerCatalog.Frame selectFrame(RainViewerCatalog.Catalog cat,
@@ -308,34 +730,49 @@ public class RainViewerRadarPolygonService {
 
     /* ==================== NORMALISATION BBOX ==================== */
 
-    private double normTopLat, normLeftLon, normBottomLat, normRightLon;
-    private void normalizeBBoxRef(double topLat, double leftLon, double bottomLat, double rightLon) {
+    // Local (et non en champs d'instance) : plusieurs frames sont normalisées en parallèle
+    private static double[] normalizeBBox(double topLat, double leftLon, double bottomLat, double rightLon) {
         double tTop = topLat;
         double tBottom = bottomLat;
         if (tBottom > tTop) { double tmp = tBottom; tBottom = tTop; tTop = tmp; }
         double tLeft = leftLon;
         double tRight = rightLon;
         if (tLeft > tRight) { double tmp = tLeft; tLeft = tRight; tRight = tmp; }
-        normTopLat = tTop;
-        normBottomLat = tBottom;
-        normLeftLon = tLeft;
-        normRightLon = tRight;
+        return new double[]{tTop, tLeft, tBottom, tRight};
+    }
+
+    /* ==================== NETTOYAGE DU MASQUE ==================== */
+
+    // Avec un seuil dBZ, on lit les tuiles en noir et blanc (dBZ bruts) pour comparer des intensités réelles
+    private int maskColorScheme() {
+        return (minDbz > 0) ? COLOR_SCHEME_DBZ : COLOR_SCHEME;
+    }
+
+    private boolean isRainPixel(int argb, int scheme) {
+        int alpha = (argb >>> 24) & 0xFF;
+        if (alpha == 0) return false;
+        if (minDbz <= 0 || scheme != COLOR_SCHEME_DBZ) return true;
+        // Schéma 0 : niveau de gris = dBZ + 32 (bit de poids fort réservé à la neige)
+        int dbz = ((argb >>> 16) & 0x7F) - 32;
+        return dbz >= minDbz;
+    }
+
+    private void cleanMask(PackedMask mask) {
+        mask.close(closingRadius);
+        mask.removeSmallComponents(minComponentArea);
     }
 
     /* ==================== TÉLÉCHARGEMENT TUILES ==================== */
 
-    private BufferedImage downloadTile(String url) {
+    // null si la tuile est indisponible ; l'interruption est propagée
+    private BufferedImage downloadTile(String url) throws InterruptedException {
         try {
-            HttpRequest req = HttpRequest.newBuilder()
-                    .uri(URI.create(url))
-                    .timeout(java.time.Duration.ofSeconds(5))
-                    .GET()
-                    .build();
-            HttpResponse<byte[]> resp = http.send(req, HttpResponse.BodyHandlers.ofByteArray());
-            if (resp.statusCode() == 200) {
-                return ImageIO.read(new java.io.ByteArrayInputStream(resp.body()));
+            byte[] data = downloadTileBytes(url);
+            if (data != null) {
+                return ImageIO.read(new java.io.ByteArrayInputStream(data));
             }
-        } catch (IOException | InterruptedException ignored) {}
+        } catch (IOException ignored) {
+        }
         return null;
     }
 
@@ -359,22 +796,40 @@ public class RainViewerRadarPolygonService {
         Edge(int x1,int y1,int x2,int y2){this.x1=x1;this.y1=y1;this.x2=x2;this.y2=y2;}
     }
 
-    private List<List<List<Double>>> maskToMergedPolygons(boolean[][] mask,
+    // originX/originY : position globale (pixels au niveau zoom) du pixel (0, 0) du masque
+    private List<List<List<Double>>> maskToMergedPolygons(PackedMask mask,
                                                           int zoom,
-                                                          int xTileMin,
-                                                          int yTileMin) {
-        int h = mask.length;
-        if (h == 0) return List.of();
-        int w = mask[0].length;
+                                                          int originX,
+                                                          int originY) {
+        List<List<List<Double>>> polys = new ArrayList<>();
+        for (List<int[]> ring : traceRings(mask)) {
+            List<List<Double>> poly = new ArrayList<>(ring.size());
+            for (int[] p : ring) {
+                poly.add(pixelCornerToLonLat(p[0], p[1], zoom, originX, originY));
+            }
+            polys.add(poly);
+        }
+        return polys;
+    }
+
+    /**
+     * Anneaux des contours du masque, en coordonnées de coins de pixels (y vers le bas).
+     * Les contours extérieurs ont une aire signée positive (sens horaire à l'écran),
+     * ceux des trous une aire négative.
+     */
+    private static List<List<int[]>> traceRings(PackedMask mask) {
+        int h = mask.getHeight();
+        if (h == 0 || mask.isEmpty()) return List.of();
+        int w = mask.getWidth();
 
         List<Edge> edges = new ArrayList<>();
         for (int y = 0; y < h; y++) {
             for (int x = 0; x < w; x++) {
-                if (!mask[y][x]) continue;
-                if (y == 0 || !mask[y-1][x]) edges.add(new Edge(x, y, x+1, y));
-                if (x == w-1 || !mask[y][x+1]) edges.add(new Edge(x+1, y, x+1, y+1));
-                if (y == h-1 || !mask[y+1][x]) edges.add(new Edge(x+1, y+1, x, y+1));
-                if (x == 0 || !mask[y][x-1]) edges.add(new Edge(x, y+1, x, y));
+                if (!mask.get(x, y)) continue;
+                if (!mask.get(x, y-1)) edges.add(new Edge(x, y, x+1, y));
+                if (!mask.get(x+1, y)) edges.add(new Edge(x+1, y, x+1, y+1));
+                if (!mask.get(x, y+1)) edges.add(new Edge(x+1, y+1, x, y+1));
+                if (!mask.get(x-1, y)) edges.add(new Edge(x, y+1, x, y));
             }
         }
         if (edges.isEmpty()) return List.of();
@@ -385,7 +840,7 @@ public class RainViewerRadarPolygonService {
             startMap.computeIfAbsent(key, k -> new ArrayList<>()).add(e);
         }
 
-        List<List<List<Double>>> polys = new ArrayList<>();
+        List<List<int[]>> rings = new ArrayList<>();
         for (Edge e : edges) {
             if (e.used) continue;
             List<int[]> ring = new ArrayList<>();
@@ -414,14 +869,9 @@ public class RainViewerRadarPolygonService {
             }
             ring = simplifyOrthogonal(ring);
             if (ring.size() < 3) continue;
-
-            List<List<Double>> poly = new ArrayList<>(ring.size());
-            for (int[] p : ring) {
-                poly.add(pixelCornerToLonLat(p[0], p[1], zoom, xTileMin, yTileMin));
-            }
-            polys.add(poly);
+            rings.add(ring);
         }
-        return polys;
+        return rings;
     }
 
     private static List<int[]> simplifyOrthogonal(List<int[]> pts) {
@@ -446,11 +896,11 @@ public class RainViewerRadarPolygonService {
         return (((long)x) << 32) ^ (y & 0xffffffffL);
     }
 
-    private List<Double> pixelCornerToLonLat(int pxGlobalEdge, int pyGlobalEdge,
-                                             int z, int xTileMin, int yTileMin) {
+    private List<Double> pixelCornerToLonLat(int pxEdge, int pyEdge,
+                                             int z, int originX, int originY) {
         double mapSize = TILE_SIZE * Math.pow(2, z);
-        double globalX = xTileMin * TILE_SIZE + pxGlobalEdge;
-        double globalY = yTileMin * TILE_SIZE + pyGlobalEdge;
+        double globalX = originX + pxEdge;
+        double globalY = originY + pyEdge;
         double lon = globalX / mapSize * 360.0 - 180.0;
         double n = Math.PI - 2.0 * Math.PI * globalY / mapSize;
         double lat = Math.toDegrees(Math.atan(Math.sinh(n)));
@@ -471,31 +921,43 @@ public class RainViewerRadarPolygonService {
 
     /* ==================== API TILES PNG ==================== */
 
-        /**
-     * Récupère une tuile PNG (oldest past frame) brute depuis RainViewer.
+    /**
+     * Récupère une tuile PNG (oldest past frame) depuis RainViewer, via {@link #fetchFrameTile}.
      * Paramètres optionnels avec valeurs par défaut : tileSize=256, colorScheme=2, smooth=1, snow=1.
      */
-    public byte[] fetchOldestPastTile(int z, int x, int y,
-                                      Integer tileSize,
-                                      Integer colorScheme,
-                                      Integer smooth,
-                                      Integer snow) throws IOException, InterruptedException {
-        RainViewerCatalog.Catalog cat = catalog.fetch();
+    public ByteBuffer fetchOldestPastTile(int z, int x, int y,
+                                          Integer tileSize,
+                                          Integer colorScheme,
+                                          Integer smooth,
+                                          Integer snow) throws IOException, InterruptedException {
+        RainViewerCatalog.Catalog cat = fetchCatalog();
         if (cat.past == null || cat.past.isEmpty()) return null;
 
-        RainViewerCatalog.Frame frame = cat.past.get(0); // oldest past
-        int ts = (tileSize != null) ? tileSize : 256;
-        int cs = (colorScheme != null) ? colorScheme : 2;
-        int sm = (smooth != null) ? smooth : 1;
-        int sn = (snow != null) ? snow : 1;
+        FrameTileRef ref = resolveFrameTile(cat.past.get(0).time, z, x, y); // oldest past
+        if (ref == null) return null;
+        return fetchFrameTile(ref, TileStyle.of(tileSize, colorScheme, smooth, snow));
+    }
 
-        String url = catalog.buildTileUrl(cat.host, frame, z, x, y, ts, cs, sm, sn, "png");
+    // Erreurs réseau et 5xx/429 comptent comme des échecs du serveur de tuiles ; disjoncteur ouvert -> CircuitOpenException
+    private byte[] downloadTileBytes(String url) throws IOException, InterruptedException {
+        if (!tileBreaker.allowRequest()) throw tileBreaker.openException();
         HttpRequest req = HttpRequest.newBuilder()
                 .uri(URI.create(url))
                 .timeout(java.time.Duration.ofSeconds(5))
                 .GET()
                 .build();
-        HttpResponse<byte[]> resp = http.send(req, HttpResponse.BodyHandlers.ofByteArray());
+        HttpResponse<byte[]> resp;
+        try {
+            resp = http.send(req, HttpResponse.BodyHandlers.ofByteArray());
+        } catch (IOException e) {
+            tileBreaker.recordFailure();
+            throw e;
+        }
+        if (resp.statusCode() >= 500 || resp.statusCode() == 429) {
+            tileBreaker.recordFailure();
+            return null;
+        }
+        tileBreaker.recordSuccess();
         if (resp.statusCode() != 200) return null;
         return resp.body();
     }
@@ -0,0 +1,374 @@
+package fr.weathermap.services;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import fr.weathermap.utils.GeoUtils;
+
+/**
+ * Graphe routier (voitures) chargé depuis un extrait OSM au format XML (.osm).
+ *
+ * Stockage compact en tableaux primitifs : coordonnées des sommets en float, arcs au
+ * format CSR (les arcs sortants du sommet v sont edgeTarget[firstEdge[v] .. firstEdge[v+1][).
+ * Chaque nœud OSM d'une voie retenue devient un sommet ; les sens uniques sont respectés.
+ *
+ * Un index en grille (même principe que {@link LocalPoiIndex}) sert à rattacher un point
+ * quelconque au sommet le plus proche.
+ */
+public class RoadGraph {
+
+    // Vitesses par défaut (km/h) des types de voies ouvertes aux voitures
+    private static final Map<String, Integer> DEFAULT_SPEEDS = Map.ofEntries(
+            Map.entry("motorway", 110), Map.entry("motorway_link", 60),
+            Map.entry("trunk", 90), Map.entry("trunk_link", 50),
+            Map.entry("primary", 80), Map.entry("primary_link", 50),
+            Map.entry("secondary", 70), Map.entry("secondary_link", 40),
+            Map.entry("tertiary", 50), Map.entry("tertiary_link", 40),
+            Map.entry("unclassified", 50), Map.entry("residential", 30),
+            Map.entry("living_street", 10), Map.entry("service", 20),
+            Map.entry("road", 40));
+
+    private static final double CELL_DEG = 0.01;
+    private static final int COLS = (int) Math.ceil(360.0 / CELL_DEG);
+    // Rayon de recherche du sommet le plus proche, en cellules (~10 km)
+    private static final int MAX_SNAP_RINGS = 10;
+
+    final float[] lats;
+    final float[] lons;
+    final int[] firstEdge;
+    final int[] edgeTarget;
+    final float[] edgeLength;   // mètres
+    final float[] edgeSpeed;    // m/s
+    final float maxSpeed;       // m/s, pour l'heuristique A*
+
+    // Sommets triés par cellule de grille
+    private final int[] cellKeys;
+    private final int[] cellVertices;
+
+    private RoadGraph(float[] lats, float[] lons, int[] firstEdge, int[] edgeTarget,
+                      float[] edgeLength, float[] edgeSpeed) {
+        this.lats = lats;
+        this.lons = lons;
+        this.firstEdge = firstEdge;
+        this.edgeTarget = edgeTarget;
+        this.edgeLength = edgeLength;
+        this.edgeSpeed = edgeSpeed;
+
+        float max = 1f;
+        for (float s : edgeSpeed) max = Math.max(max, s);
+        this.maxSpeed = max;
+
+        int n = lats.length;
+        long[] order = new long[n];
+        for (int v = 0; v < n; v++) {
+            order[v] = ((long) cellKey(lats[v], lons[v]) << 32) | v;
+        }
+        Arrays.sort(order);
+        this.cellKeys = new int[n];
+        this.cellVertices = new int[n];
+        for (int k = 0; k < n; k++) {
+            cellKeys[k] = (int) (order[k] >>> 32);
+            cellVertices[k] = (int) (order[k] & 0xffffffffL);
+        }
+    }
+
+    public int vertexCount() {
+        return lats.length;
+    }
+
+    public int edgeCount() {
+        return edgeTarget.length;
+    }
+
+    /* ==================== CHARGEMENT ==================== */
+
+    /**
+     * Lit l'extrait en un seul passage : les nœuds (qui précèdent les voies dans un
+     * fichier .osm) sont gardés en tableaux triés par identifiant, puis seules les voies
+     * "highway" circulables sont transformées en arcs.
+     */
+    public static RoadGraph load(Path file) throws IOException {
+        Builder b = new Builder();
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            XMLStreamReader xml = factory.createXMLStreamReader(in);
+            try {
+                boolean inWay = false;
+                while (xml.hasNext()) {
+                    int event = xml.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        switch (xml.getLocalName()) {
+                            case "node":
+                                b.addNode(Long.parseLong(xml.getAttributeValue(null, "id")),
+                                        Double.parseDouble(xml.getAttributeValue(null, "lat")),
+                                        Double.parseDouble(xml.getAttributeValue(null, "lon")));
+                                break;
+                            case "way":
+                                inWay = true;
+                                b.startWay();
+                                break;
+                            case "nd":
+                                if (inWay) b.addRef(Long.parseLong(xml.getAttributeValue(null, "ref")));
+                                break;
+                            case "tag":
+                                if (inWay) b.addTag(xml.getAttributeValue(null, "k"), xml.getAttributeValue(null, "v"));
+                                break;
+                            default:
+                                break;
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT && "way".equals(xml.getLocalName())) {
+                        inWay = false;
+                        b.endWay();
+                    }
+                }
+            } finally {
+                xml.close();
+            }
+        } catch (XMLStreamException | NumberFormatException e) {
+            throw new IOException("Extrait OSM invalide: " + e.getMessage(), e);
+        }
+        return b.build();
+    }
+
+    private static final class Builder {
+        long[] nodeIds = new long[1 << 16];
+        float[] nodeLats = new float[1 << 16];
+        float[] nodeLons = new float[1 << 16];
+        int nodeCount;
+        boolean nodesSorted = true;
+
+        // Voies retenues : références concaténées, bornes, vitesse (m/s) et sens (1, -1 ou 0 = double sens)
+        long[] refs = new long[1 << 16];
+        int refCount;
+        int[] wayStart = new int[1 << 12];
+        float[] waySpeed = new float[1 << 12];
+        byte[] wayDir = new byte[1 << 12];
+        int wayCount;
+
+        // Voie en cours de lecture
+        int curStart;
+        String highway;
+        String maxspeed;
+        String oneway;
+        String junction;
+        String access;
+
+        void addNode(long id, double lat, double lon) {
+            if (nodeCount == nodeIds.length) {
+                nodeIds = Arrays.copyOf(nodeIds, nodeCount * 2);
+                nodeLats = Arrays.copyOf(nodeLats, nodeCount * 2);
+                nodeLons = Arrays.copyOf(nodeLons, nodeCount * 2);
+            }
+            if (nodeCount > 0 && id < nodeIds[nodeCount - 1]) nodesSorted = false;
+            nodeIds[nodeCount] = id;
+            nodeLats[nodeCount] = (float) lat;
+            nodeLons[nodeCount] = (float) lon;
+            nodeCount++;
+        }
+
+        void startWay() {
+            curStart = refCount;
+            highway = maxspeed = oneway = junction = access = null;
+        }
+
+        void addRef(long ref) {
+            if (refCount == refs.length) refs = Arrays.copyOf(refs, refCount * 2);
+            refs[refCount++] = ref;
+        }
+
+        void addTag(String k, String v) {
+            switch (k) {
+                case "highway": highway = v; break;
+                case "maxspeed": maxspeed = v; break;
+                case "oneway": oneway = v; break;
+                case "junction": junction = v; break;
+                case "access": access = v; break;
+                default: break;
+            }
+        }
+
+        void endWay() {
+            Integer defaultSpeed = (highway != null) ? DEFAULT_SPEEDS.get(highway) : null;
+            if (defaultSpeed == null || refCount - curStart < 2
+                    || "no".equals(access) || "private".equals(access)) {
+                refCount = curStart; // voie ignorée
+                return;
+            }
+            int kmh = defaultSpeed;
+            if (maxspeed != null) {
+                try {
+                    kmh = Integer.parseInt(maxspeed.trim().split(" ")[0]);
+                } catch (NumberFormatException ignored) {
+                    // "FR:urban", "walk"... : on garde la vitesse par défaut
+                }
+            }
+            byte dir = 0;
+            if ("yes".equals(oneway) || "1".equals(oneway) || "true".equals(oneway)) dir = 1;
+            else if ("-1".equals(oneway) || "reverse".equals(oneway)) dir = -1;
+            else if (!"no".equals(oneway) && ("motorway".equals(highway) || "roundabout".equals(junction))) dir = 1;
+
+            if (wayCount + 1 >= wayStart.length) {
+                wayStart = Arrays.copyOf(wayStart, wayStart.length * 2);
+                waySpeed = Arrays.copyOf(waySpeed, waySpeed.length * 2);
+                wayDir = Arrays.copyOf(wayDir, wayDir.length * 2);
+            }
+            wayStart[wayCount] = curStart;
+            waySpeed[wayCount] = Math.max(1, kmh) / 3.6f;
+            wayDir[wayCount] = dir;
+            wayCount++;
+            wayStart[wayCount] = refCount;
+        }
+
+        RoadGraph build() {
+            if (!nodesSorted) sortNodes();
+
+            // Sommets = nœuds référencés par une voie retenue
+            int[] vertexOfNode = new int[nodeCount];
+            Arrays.fill(vertexOfNode, -1);
+            int[] nodeOfRef = new int[refCount];
+            int vertexCount = 0;
+            for (int r = 0; r < refCount; r++) {
+                int node = Arrays.binarySearch(nodeIds, 0, nodeCount, refs[r]);
+                nodeOfRef[r] = node;
+                if (node >= 0 && vertexOfNode[node] < 0) vertexOfNode[node] = vertexCount++;
+            }
+            float[] lats = new float[vertexCount];
+            float[] lons = new float[vertexCount];
+            for (int node = 0; node < nodeCount; node++) {
+                int v = vertexOfNode[node];
+                if (v >= 0) {
+                    lats[v] = nodeLats[node];
+                    lons[v] = nodeLons[node];
+                }
+            }
+
+            // Degrés sortants, puis remplissage CSR
+            int[] firstEdge = new int[vertexCount + 1];
+            for (int w = 0; w < wayCount; w++) {
+                for (int r = wayStart[w]; r + 1 < wayStart[w + 1]; r++) {
+                    if (nodeOfRef[r] < 0 || nodeOfRef[r + 1] < 0 || nodeOfRef[r] == nodeOfRef[r + 1]) continue;
+                    if (wayDir[w] >= 0) firstEdge[vertexOfNode[nodeOfRef[r]] + 1]++;
+                    if (wayDir[w] <= 0) firstEdge[vertexOfNode[nodeOfRef[r + 1]] + 1]++;
+                }
+            }
+            for (int v = 0; v < vertexCount; v++) firstEdge[v + 1] += firstEdge[v];
+
+            int edgeCount = firstEdge[vertexCount];
+            int[] cursor = Arrays.copyOf(firstEdge, vertexCount);
+            int[] targets = new int[edgeCount];
+            float[] lengths = new float[edgeCount];
+            float[] speeds = new float[edgeCount];
+            for (int w = 0; w < wayCount; w++) {
+                for (int r = wayStart[w]; r + 1 < wayStart[w + 1]; r++) {
+                    if (nodeOfRef[r] < 0 || nodeOfRef[r + 1] < 0 || nodeOfRef[r] == nodeOfRef[r + 1]) continue;
+                    int a = vertexOfNode[nodeOfRef[r]];
+                    int c = vertexOfNode[nodeOfRef[r + 1]];
+                    float len = (float) GeoUtils.haversineMeters(lats[a], lons[a], lats[c], lons[c]);
+                    if (wayDir[w] >= 0) {
+                        int e = cursor[a]++;
+                        targets[e] = c;
+                        lengths[e] = len;
+                        speeds[e] = waySpeed[w];
+                    }
+                    if (wayDir[w] <= 0) {
+                        int e = cursor[c]++;
+                        targets[e] = a;
+                        lengths[e] = len;
+                        speeds[e] = waySpeed[w];
+                    }
+                }
+            }
+            return new RoadGraph(lats, lons, firstEdge, targets, lengths, speeds);
+        }
+
+        private void sortNodes() {
+            Integer[] order = new Integer[nodeCount];
+            for (int i = 0; i < nodeCount; i++) order[i] = i;
+            Arrays.sort(order, (x, y) -> Long.compare(nodeIds[x], nodeIds[y]));
+            long[] ids = new long[nodeCount];
+            float[] la = new float[nodeCount];
+            float[] lo = new float[nodeCount];
+            for (int k = 0; k < nodeCount; k++) {
+                ids[k] = nodeIds[order[k]];
+                la[k] = nodeLats[order[k]];
+                lo[k] = nodeLons[order[k]];
+            }
+            nodeIds = ids;
+            nodeLats = la;
+            nodeLons = lo;
+        }
+    }
+
+    /* ==================== SOMMET LE PLUS PROCHE ==================== */
+
+    /**
+     * Sommet le plus proche de (lat, lon) dans un rayon d'environ 10 km, ou -1.
+     *
+     * @param requireOutgoing ne retenir que des sommets ayant au moins un arc sortant (départ)
+     */
+    public int nearestVertex(double lat, double lon, boolean requireOutgoing) {
+        int cy = cellY(lat);
+        int cx = cellX(lon);
+        int best = -1;
+        double bestDist = Double.MAX_VALUE;
+        int foundAtRing = -1;
+        for (int ring = 0; ring <= MAX_SNAP_RINGS; ring++) {
+            // Un sommet d'un anneau plus lointain peut encore être plus proche : un anneau de plus après le premier trouvé
+            if (foundAtRing >= 0 && ring > foundAtRing + 1) break;
+            for (int y = cy - ring; y <= cy + ring; y++) {
+                boolean edgeRow = (y == cy - ring || y == cy + ring);
+                for (int x = cx - ring; x <= cx + ring; x++) {
+                    if (!edgeRow && x != cx - ring && x != cx + ring) continue;
+                    if (y < 0 || x < 0 || x >= COLS) continue;
+                    int key = y * COLS + x;
+                    for (int k = lowerBound(key); k < cellKeys.length && cellKeys[k] == key; k++) {
+                        int v = cellVertices[k];
+                        if (requireOutgoing && firstEdge[v] == firstEdge[v + 1]) continue;
+                        double d = GeoUtils.haversineMeters(lat, lon, lats[v], lons[v]);
+                        if (d < bestDist) {
+                            bestDist = d;
+                            best = v;
+                        }
+                    }
+                }
+            }
+            if (best >= 0 && foundAtRing < 0) foundAtRing = ring;
+        }
+        return best;
+    }
+
+    private int lowerBound(int key) {
+        int lo = 0;
+        int hi = cellKeys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cellKeys[mid] < key) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    private static int cellKey(double lat, double lon) {
+        return cellY(lat) * COLS + cellX(lon);
+    }
+
+    private static int cellY(double lat) {
+        double clamped = Math.max(-90.0, Math.min(90.0, lat));
+        return (int) Math.floor((clamped + 90.0) / CELL_DEG);
+    }
+
+    private static int cellX(double lon) {
+        double clamped = Math.max(-180.0, Math.min(180.0 - 1e-9, lon));
+        return (int) Math.floor((clamped + 180.0) / CELL_DEG);
+    }
+}
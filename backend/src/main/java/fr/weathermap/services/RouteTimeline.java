@@ -0,0 +1,142 @@
+package fr.weathermap.services;
+
+import java.util.Arrays;
+import java.util.List;
+
+import fr.weathermap.utils.GeoUtils;
+
+/**
+ * Horodatage d'un tracé : distance et temps cumulés à chaque point, construits une fois
+ * par itinéraire. La position du véhicule à un instant donné s'obtient ensuite par
+ * recherche dichotomique (O(log n)) et interpolation dans le tronçon trouvé.
+ *
+ * Avec les manœuvres Valhalla, le temps de chaque manœuvre est réparti sur ses propres
+ * tronçons (begin_shape_index .. end_shape_index) : la vitesse n'est supposée uniforme
+ * qu'à l'intérieur d'une manœuvre, pas sur tout l'itinéraire.
+ */
+public final class RouteTimeline {
+
+    private final List<List<Double>> shapeLatLon;
+    private final double[] cumDistance;   // mètres
+    private final double[] cumTime;       // secondes depuis le départ
+
+    private RouteTimeline(List<List<Double>> shapeLatLon, double[] cumDistance, double[] cumTime) {
+        this.shapeLatLon = shapeLatLon;
+        this.cumDistance = cumDistance;
+        this.cumTime = cumTime;
+    }
+
+    /**
+     * Position sur le tracé à un instant donné.
+     *
+     * @param shapeIndex point du tracé qui précède la position
+     * @param point      position interpolée [lat, lon]
+     * @param time       instant (secondes depuis le départ)
+     * @param distance   distance parcourue (mètres)
+     */
+    public record Position(int shapeIndex, List<Double> point, double time, double distance) {
+    }
+
+    /**
+     * @param totalDuration  durée totale (s) annoncée par le routeur, utilisée si les manœuvres sont inexploitables
+     * @param totalDistance  distance totale (m) annoncée ; les distances géodésiques y sont ramenées si > 0
+     */
+    public static RouteTimeline fromManeuvers(List<List<Double>> shapeLatLon,
+                                              List<ValhallaRouteResponse.Maneuver> maneuvers,
+                                              double totalDuration,
+                                              double totalDistance) {
+        int n = shapeLatLon.size();
+        double[] cumDistance = GeoUtils.cumulativeDistances(shapeLatLon);
+        double geodesic = (n > 0) ? cumDistance[n - 1] : 0.0;
+        if (totalDistance > 0 && geodesic > 0) {
+            double scale = totalDistance / geodesic;
+            for (int k = 0; k < n; k++) cumDistance[k] *= scale;
+        }
+
+        // Temps de chaque tronçon [k, k+1], réparti au prorata des longueurs dans sa manœuvre
+        double[] segTime = new double[Math.max(0, n - 1)];
+        boolean usable = maneuvers != null && !maneuvers.isEmpty() && n > 1;
+        if (usable) {
+            for (ValhallaRouteResponse.Maneuver m : maneuvers) {
+                int b = Math.max(0, m.beginShapeIndex());
+                int e = Math.min(n - 1, m.endShapeIndex());
+                if (e <= b) continue;
+                double length = cumDistance[e] - cumDistance[b];
+                for (int k = b; k < e; k++) {
+                    double share = (length > 0) ? (cumDistance[k + 1] - cumDistance[k]) / length : 1.0 / (e - b);
+                    segTime[k] += m.time() * share;
+                }
+            }
+            double sum = 0.0;
+            for (double t : segTime) sum += t;
+            usable = sum > 0;
+        }
+        if (!usable) {
+            // Repli : vitesse uniforme sur tout l'itinéraire
+            double total = (n > 0) ? cumDistance[n - 1] : 0.0;
+            for (int k = 0; k + 1 < n; k++) {
+                segTime[k] = (total > 0) ? (cumDistance[k + 1] - cumDistance[k]) / total * totalDuration : 0.0;
+            }
+        }
+
+        double[] cumTime = new double[n];
+        for (int k = 1; k < n; k++) cumTime[k] = cumTime[k - 1] + segTime[k - 1];
+        return new RouteTimeline(shapeLatLon, cumDistance, cumTime);
+    }
+
+    /**
+     * Tracé déjà horodaté (moteur local) : les distances sont recalculées, les temps repris tels quels.
+     */
+    public static RouteTimeline fromTimes(List<List<Double>> shapeLatLon, double[] times) {
+        return new RouteTimeline(shapeLatLon, GeoUtils.cumulativeDistances(shapeLatLon), times.clone());
+    }
+
+    public List<List<Double>> getShapeLatLon() {
+        return shapeLatLon;
+    }
+
+    public int size() {
+        return cumTime.length;
+    }
+
+    public double timeAt(int shapeIndex) {
+        return cumTime[shapeIndex];
+    }
+
+    public double distanceAt(int shapeIndex) {
+        return cumDistance[shapeIndex];
+    }
+
+    public double duration() {
+        return cumTime.length > 0 ? cumTime[cumTime.length - 1] : 0.0;
+    }
+
+    public double distance() {
+        return cumDistance.length > 0 ? cumDistance[cumDistance.length - 1] : 0.0;
+    }
+
+    /**
+     * Position à l'instant {@code time} (borné au départ et à l'arrivée), ou null si le tracé est vide.
+     */
+    public Position positionAt(double time) {
+        int n = cumTime.length;
+        if (n == 0) return null;
+        if (n == 1 || time <= 0) return new Position(0, shapeLatLon.get(0), 0.0, 0.0);
+        if (time >= cumTime[n - 1]) return new Position(n - 1, shapeLatLon.get(n - 1), cumTime[n - 1], cumDistance[n - 1]);
+
+        // Dernier point dont le temps est <= time
+        int k = Arrays.binarySearch(cumTime, time);
+        if (k < 0) k = -k - 2;
+        while (k + 1 < n && cumTime[k + 1] <= time) k++; // temps égaux (tronçons de durée nulle)
+        k = Math.min(k, n - 2);
+
+        double span = cumTime[k + 1] - cumTime[k];
+        double ratio = (span <= 0) ? 0.0 : (time - cumTime[k]) / span;
+        List<Double> a = shapeLatLon.get(k);
+        List<Double> b = shapeLatLon.get(k + 1);
+        List<Double> point = List.of(a.get(0) + (b.get(0) - a.get(0)) * ratio,
+                a.get(1) + (b.get(1) - a.get(1)) * ratio);
+        double distance = cumDistance[k] + (cumDistance[k + 1] - cumDistance[k]) * ratio;
+        return new Position(k, point, time, distance);
+    }
+}
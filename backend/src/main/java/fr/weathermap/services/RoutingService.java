@@ -1,13 +1,22 @@
 package fr.weathermap.services;
 
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 
 import fr.weathermap.utils.AreaUtils;
+import fr.weathermap.utils.CircuitBreaker;
+import fr.weathermap.utils.SingleFlight;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.function.Consumer;
 
 @Service
 public class RoutingService {
@@ -15,8 +24,74 @@ public class RoutingService {
     @Autowired
     private RainViewerRadarPolygonService rainViewerRadarPolygonService;
 
+    @Autowired
+    private RainExposureEvaluator rainExposureEvaluator;
+
     private final String valhallaAPI = "http://37.187.49.205:8002/route";
 
+    // Délais bornés et disjoncteur : une panne de Valhalla ne bloque pas chaque requête jusqu'au délai réseau
+    private static final int VALHALLA_CONNECT_TIMEOUT_MS = 3000;
+    private static final int VALHALLA_READ_TIMEOUT_MS = 15000;
+    private final RestTemplate valhallaClient = valhallaClient();
+    private final CircuitBreaker valhallaBreaker = new CircuitBreaker("valhalla", 5, 30_000L);
+
+    private static RestTemplate valhallaClient() {
+        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
+        factory.setConnectTimeout(VALHALLA_CONNECT_TIMEOUT_MS);
+        factory.setReadTimeout(VALHALLA_READ_TIMEOUT_MS);
+        return new RestTemplate(factory);
+    }
+
+    // Durée pendant laquelle chaque frame radar est considérée valable le long du trajet
+    private static final double FRAME_SECONDS = 600.0;
+
+    // "valhalla" (défaut, API distante) ou "local" (graphe chargé depuis routing.local.file)
+    @Value("${routing.engine:valhalla}")
+    private String engine = "valhalla";
+
+    // Extrait OSM au format XML (.osm)
+    @Value("${routing.local.file:}")
+    private String localGraphFile = "";
+
+    // Facteur appliqué au temps de parcours des tronçons sous la pluie par le moteur local
+    @Value("${routing.local.rain-penalty:5.0}")
+    private double rainPenalty = 5.0;
+
+    private volatile LocalRoutingEngine localEngine;
+
+    // Clé d'un appel Valhalla simple : égalité profonde des polygones d'exclusion
+    private record SegmentKey(double sLat, double sLon, double eLat, double eLon,
+            List<List<List<Double>>> excludePolygons) {
+    }
+
+    private final SingleFlight<SegmentKey, Map<String, Object>> segmentRequests = new SingleFlight<>();
+
+    // Nombre d'itinéraires alternatifs demandés à Valhalla en mode dynamique
+    @Value("${routing.alternates:2}")
+    private int alternates = 2;
+
+    // Exposition à la pluie (secondes) tolérée pour le meilleur candidat avant de re-router avec exclusions
+    @Value("${routing.rain.reroute-threshold-seconds:60}")
+    private double rerouteThresholdSeconds = 60;
+
+    @PostConstruct
+    void loadLocalGraph() {
+        if (!"local".equalsIgnoreCase(engine)) return;
+        if (localGraphFile == null || localGraphFile.isBlank()) {
+            System.err.println("routing.engine=local sans routing.local.file : utilisation de Valhalla");
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            RoadGraph graph = RoadGraph.load(Path.of(localGraphFile));
+            localEngine = new LocalRoutingEngine(graph);
+            System.out.println("Graphe routier local: " + graph.vertexCount() + " sommets, " + graph.edgeCount()
+                    + " arcs chargés en " + (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException e) {
+            System.err.println("Impossible de charger " + localGraphFile + " : " + e.getMessage() + " (utilisation de Valhalla)");
+        }
+    }
+
     public Map<String, Object> calculateWeatherAwareRouteStatic(
             double startLat, double startLng,
             double endLat, double endLng,
@@ -43,10 +118,28 @@ public class RoutingService {
                 }
             } catch (Exception e) {
                 useRain = false;
+                rainUnavailable(result, e);
             }
+            if (useRain) result.put("rain_age", rainViewerRadarPolygonService.catalogAgeSeconds());
         }
 
-        Map<String, Object> segment = buildRouteSegment(startLat, startLng, endLat, endLng, useRain ? polygons : null);
+        LocalRoutingEngine local = localEngine;
+        Map<String, Object> segment;
+        if (local != null) {
+            segment = buildLocalSegment(local, startLat, startLng, endLat, endLng,
+                    useRain ? Collections.singletonList(frames.get(0).mask) : List.of());
+        } else {
+            segment = buildRouteSegment(startLat, startLng, endLat, endLng, null);
+            // On ne re-route avec exclusions que si l'itinéraire direct passe vraiment sous la pluie
+            if (useRain && segment != null) {
+                RainExposureEvaluator.Exposure exposure = rainExposureEvaluator.evaluate(
+                        (RouteTimeline) segment.get("segment_timeline"), frames.subList(0, 1), FRAME_SECONDS);
+                if (exposure.seconds() > rerouteThresholdSeconds) {
+                    Map<String, Object> rerouted = buildRouteSegment(startLat, startLng, endLat, endLng, polygons);
+                    if (rerouted != null) segment = rerouted;
+                }
+            }
+        }
         if (segment == null) {
             result.put("error", "Routing failed");
             result.put("duration", 0);
@@ -70,6 +163,62 @@ public class RoutingService {
         return result;
     }
 
+    /**
+     * Exposition à la pluie de l'itinéraire le plus rapide (sans évitement), frame par
+     * frame, en supposant un départ immédiat :
+     * {
+     * "duration": <seconds>, "distance": <meters>,
+     * "rain_seconds": <seconds>, "rain_meters": <meters>,
+     * "frames": [ { "time": <UNIX seconds>, "rain_seconds": ..., "rain_meters": ... }, ... ],
+     * "route": [ [lat,lon], ... ]
+     * }
+     */
+    public Map<String, Object> evaluateRainExposure(
+            double startLat, double startLng,
+            double endLat, double endLng) {
+        Map<String, Object> result = new HashMap<>();
+
+        LocalRoutingEngine local = localEngine;
+        Map<String, Object> segment = (local != null)
+                ? buildLocalSegment(local, startLat, startLng, endLat, endLng, List.of())
+                : buildRouteSegment(startLat, startLng, endLat, endLng, null);
+        if (segment == null) {
+            result.put("error", "Routing failed");
+            return result;
+        }
+
+        List<RainViewerRadarPolygonService.RainPolygonsResult> frames;
+        try {
+            Map<String, Double> expanded = AreaUtils.expandedArea(startLat, startLng, endLat, endLng);
+            frames = rainViewerRadarPolygonService.fetchAllRainPolygons(
+                    expanded.get("latMax"), expanded.get("lonMin"),
+                    expanded.get("latMin"), expanded.get("lonMax"));
+        } catch (Exception e) {
+            result.put("error", "Rain data unavailable");
+            return result;
+        }
+
+        RainExposureEvaluator.Exposure exposure = rainExposureEvaluator.evaluate(
+                (RouteTimeline) segment.get("segment_timeline"), frames, FRAME_SECONDS);
+        List<Map<String, Object>> perFrame = new ArrayList<>();
+        for (RainExposureEvaluator.FrameExposure f : exposure.frames()) {
+            Map<String, Object> frame = new HashMap<>();
+            frame.put("time", f.frameTime());
+            frame.put("rain_seconds", f.seconds());
+            frame.put("rain_meters", f.meters());
+            perFrame.add(frame);
+        }
+
+        result.put("duration", toDouble(segment.get("segment_duration")));
+        result.put("distance", toDouble(segment.get("segment_distance")));
+        result.put("rain_seconds", exposure.seconds());
+        result.put("rain_age", rainViewerRadarPolygonService.catalogAgeSeconds());
+        result.put("rain_meters", exposure.meters());
+        result.put("frames", perFrame);
+        result.put("route", segment.get("segment_shape_latlon"));
+        return result;
+    }
+
     /**
      * Nouveau format:
      * {
@@ -88,6 +237,43 @@ public class RoutingService {
             double startLat, double startLng,
             double endLat, double endLng,
             List<String> avoidWeatherConditions) {
+        return calculateWeatherAwareRouteDynamic(startLat, startLng, endLat, endLng, avoidWeatherConditions, step -> {
+        });
+    }
+
+    /**
+     * Variante progressive : {@code onStep} reçoit chaque étape dès qu'elle est calculée
+     * (au fil des appels Valhalla dans le re-routage frame par frame), dans l'ordre du
+     * trajet. Le résultat complet est renvoyé à la fin comme pour la version simple ;
+     * en cas d'erreur, les étapes déjà émises sont à ignorer.
+     */
+    public Map<String, Object> calculateWeatherAwareRouteDynamic(
+            double startLat, double startLng,
+            double endLat, double endLng,
+            List<String> avoidWeatherConditions,
+            Consumer<Map<String, Object>> onStep) {
+        // Les étapes calculées d'un bloc (moteur local, alternative retenue...) sont émises à la fin
+        Set<Map<String, Object>> emitted = Collections.newSetFromMap(new IdentityHashMap<>());
+        Map<String, Object> result = computeDynamicRoute(startLat, startLng, endLat, endLng, avoidWeatherConditions,
+                step -> {
+                    emitted.add(step);
+                    onStep.accept(step);
+                });
+        if (!result.containsKey("error") && result.get("steps") instanceof List<?> steps) {
+            for (Object step : steps) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> st = (Map<String, Object>) step;
+                if (!emitted.contains(st)) onStep.accept(st);
+            }
+        }
+        return result;
+    }
+
+    private Map<String, Object> computeDynamicRoute(
+            double startLat, double startLng,
+            double endLat, double endLng,
+            List<String> avoidWeatherConditions,
+            Consumer<Map<String, Object>> onStep) {
         Map<String, Object> result = new HashMap<>();
 
         boolean dynamicRain = (avoidWeatherConditions != null && avoidWeatherConditions.contains("rain"));
@@ -101,11 +287,22 @@ public class RoutingService {
                         expanded.get("latMin"), expanded.get("lonMax"));
             } catch (Exception e) {
                 dynamicRain = false;
+                rainUnavailable(result, e);
             }
+            if (dynamicRain) result.put("rain_age", rainViewerRadarPolygonService.catalogAgeSeconds());
+        }
+
+        LocalRoutingEngine local = localEngine;
+        if (local != null && dynamicRain && !frames.isEmpty()) {
+            Map<String, Object> localResult = calculateDynamicLocal(local, startLat, startLng, endLat, endLng, frames);
+            localResult.put("rain_age", result.get("rain_age"));
+            return localResult;
         }
 
         if (!dynamicRain || frames.isEmpty()) {
-            Map<String, Object> singleStep = buildRouteSegment(startLat, startLng, endLat, endLng, null);
+            Map<String, Object> singleStep = (local != null)
+                    ? buildLocalSegment(local, startLat, startLng, endLat, endLng, List.of())
+                    : buildRouteSegment(startLat, startLng, endLat, endLng, null);
             if (singleStep == null) {
                 // Pas de frames => steps vide mais format conservé
                 result.put("error", "Routing failed");
@@ -125,6 +322,12 @@ public class RoutingService {
             return result;
         }
 
+        Map<String, Object> driest = pickDriestAlternative(startLat, startLng, endLat, endLng, frames);
+        if (driest != null) {
+            return driest;
+        }
+
+        // Repli : re-routage frame par frame avec polygones d'exclusion
         List<Map<String, Object>> steps = new ArrayList<>();
         double totalDuration = 0.0;
         double totalDistance = 0.0;
@@ -176,6 +379,7 @@ public class RoutingService {
                 outStep.put("rain_polygons", AreaUtils.reverseLonLat(simplifiedPolygons));
                 outStep.put("route", AreaUtils.reverseLonLat2(stepRouteLonLat));
                 steps.add(outStep);
+                onStep.accept(outStep);
 
                 if (!isLastFrame && !fullShapeLatLon.isEmpty()) {
                     List<Double> last = fullShapeLatLon.get(fullShapeLatLon.size() - 1);
@@ -188,8 +392,10 @@ public class RoutingService {
             double targetTime = remainingWindow - 0.1;
             if (targetTime < 0) targetTime = remainingWindow * 0.5;
 
-            SplitResult split = splitShapeByTime(fullShapeLatLon, segmentTotalDuration, segmentTotalDistance, targetTime);
-            if (split == null || split.shapeIndex <= 0) {
+            RouteTimeline timeline = (RouteTimeline) segment.get("segment_timeline");
+            RouteTimeline.Position split = (targetTime > 0 && targetTime < timeline.duration())
+                    ? timeline.positionAt(targetTime) : null;
+            if (split == null || split.shapeIndex() <= 0) {
                 List<List<Double>> stepRouteLonLat = toLonLat(fullShapeLatLon);
                 globalTimeCovered += segmentTotalDuration;
                 totalDuration += segmentTotalDuration;
@@ -199,26 +405,26 @@ public class RoutingService {
                 outStep.put("rain_polygons", AreaUtils.reverseLonLat(simplifiedPolygons));
                 outStep.put("route", AreaUtils.reverseLonLat2(stepRouteLonLat));
                 steps.add(outStep);
+                onStep.accept(outStep);
                 break;
             }
 
-            List<List<Double>> partialShape = new ArrayList<>(fullShapeLatLon.subList(0, split.shapeIndex + 1));
-            if (split.interpolatedPoint != null) partialShape.add(split.interpolatedPoint);
+            List<List<Double>> partialShape = new ArrayList<>(fullShapeLatLon.subList(0, split.shapeIndex() + 1));
+            partialShape.add(split.point());
 
             List<List<Double>> stepRouteLonLat = toLonLat(partialShape);
 
-            globalTimeCovered += split.timeUsed;
-            totalDuration += split.timeUsed;
-            totalDistance += split.distanceUsed;
+            globalTimeCovered += split.time();
+            totalDuration += split.time();
+            totalDistance += split.distance();
 
             Map<String, Object> outStep = new HashMap<>();
             outStep.put("rain_polygons", AreaUtils.reverseLonLat(simplifiedPolygons));
             outStep.put("route", AreaUtils.reverseLonLat2(stepRouteLonLat));
             steps.add(outStep);
+            onStep.accept(outStep);
 
-            List<Double> newStart = (split.interpolatedPoint != null)
-                    ? split.interpolatedPoint
-                    : fullShapeLatLon.get(split.shapeIndex);
+            List<Double> newStart = split.point();
             currentStartLat = newStart.get(0);
             currentStartLng = newStart.get(1);
         }
@@ -229,76 +435,102 @@ public class RoutingService {
         return result;
     }
 
-    private static class SplitResult {
-        int shapeIndex; // index du point précédent la coupure
-        List<Double> interpolatedPoint; // point ajouté (lat,lon) si coupure au milieu d'un segment
-        double timeUsed; // secondes utilisées jusqu'à la coupure
-        double distanceUsed; // mètres utilisés jusqu'à la coupure
-    }
-
-    private SplitResult splitShapeByTime(List<List<Double>> shapeLatLon,
-            double totalDurationSec,
-            double totalDistanceMeters,
-            double targetTimeSec) {
-        if (shapeLatLon == null || shapeLatLon.size() < 2)
-            return null;
-        if (targetTimeSec <= 0 || targetTimeSec >= totalDurationSec)
+    /**
+     * Un seul appel Valhalla avec alternatives, chaque candidat étant évalué localement
+     * contre les frames de pluie (position estimée du véhicule à chaque instant).
+     * Renvoie le résultat construit sur le candidat le plus sec, ou null si aucun
+     * candidat n'est assez sec (le mode dynamique re-route alors avec exclusions).
+     */
+    private Map<String, Object> pickDriestAlternative(double startLat, double startLng,
+            double endLat, double endLng,
+            List<RainViewerRadarPolygonService.RainPolygonsResult> frames) {
+        List<Map<String, Object>> candidates = buildRouteAlternatives(startLat, startLng, endLat, endLng, alternates);
+        if (candidates.isEmpty())
             return null;
 
-        // Distances cumulées
-        double[] segDist = new double[shapeLatLon.size() - 1];
-        double cum = 0.0;
-        for (int i = 0; i < segDist.length; i++) {
-            List<Double> a = shapeLatLon.get(i);
-            List<Double> b = shapeLatLon.get(i + 1);
-            segDist[i] = haversineMeters(a.get(0), a.get(1), b.get(0), b.get(1));
-            cum += segDist[i];
+        Map<String, Object> best = null;
+        double bestRain = Double.MAX_VALUE;
+        for (Map<String, Object> candidate : candidates) {
+            double rain = rainExposureEvaluator.evaluate(
+                    (RouteTimeline) candidate.get("segment_timeline"), frames, FRAME_SECONDS).seconds();
+            // À exposition égale, le premier (le plus rapide selon Valhalla) l'emporte
+            if (rain < bestRain) {
+                best = candidate;
+                bestRain = rain;
+            }
         }
-        if (cum <= 0)
+        if (bestRain > rerouteThresholdSeconds)
             return null;
 
-        // Approche proportionnelle temps <-> distance
-        double targetDistance = (targetTimeSec / totalDurationSec) * totalDistanceMeters;
-        if (targetDistance <= 0)
-            return null;
-        if (targetDistance >= totalDistanceMeters)
-            return null;
+        Map<String, Object> result = new HashMap<>();
+        result.put("duration", toDouble(best.get("segment_duration")));
+        result.put("distance", toDouble(best.get("segment_distance")));
+        result.put("steps", splitByFrameWindows((RouteTimeline) best.get("segment_timeline"), frames));
+        return result;
+    }
 
-        double accDist = 0.0;
-        for (int i = 0; i < segDist.length; i++) {
-            double nextAcc = accDist + segDist[i];
-            if (nextAcc > targetDistance) {
-                // Coupure dans ce segment
-                double remain = targetDistance - accDist;
-                double ratio = (segDist[i] == 0) ? 0 : (remain / segDist[i]);
-                List<Double> A = shapeLatLon.get(i);
-                List<Double> B = shapeLatLon.get(i + 1);
-                // Interpolation linéaire (approx suffisante)
-                double lat = A.get(0) + (B.get(0) - A.get(0)) * ratio;
-                double lon = A.get(1) + (B.get(1) - A.get(1)) * ratio;
-
-                double timeUsed = targetTimeSec;
-                SplitResult sr = new SplitResult();
-                sr.shapeIndex = i; // i = point précédent
-                sr.interpolatedPoint = List.of(lat, lon);
-                sr.distanceUsed = targetDistance;
-                sr.timeUsed = timeUsed;
-                return sr;
-            }
-            accDist = nextAcc;
+    /**
+     * Mode dynamique avec le moteur local : une seule recherche dépendante du temps sur
+     * l'ensemble des frames, puis découpage du tracé en une étape par fenêtre de frame
+     * (même format de réponse que la version Valhalla).
+     */
+    private Map<String, Object> calculateDynamicLocal(LocalRoutingEngine local,
+            double startLat, double startLng,
+            double endLat, double endLng,
+            List<RainViewerRadarPolygonService.RainPolygonsResult> frames) {
+        Map<String, Object> result = new HashMap<>();
+        List<RadarMask> masks = new ArrayList<>(frames.size());
+        for (RainViewerRadarPolygonService.RainPolygonsResult f : frames) masks.add(f.mask);
+
+        LocalRoutingEngine.Route route = local.route(startLat, startLng, endLat, endLng, masks, FRAME_SECONDS, rainPenalty);
+        if (route == null) {
+            result.put("error", "Routing failed");
+            result.put("duration", 0);
+            result.put("distance", 0);
+            result.put("steps", List.of());
+            return result;
         }
-        return null;
+
+        result.put("duration", route.duration());
+        result.put("distance", route.distance());
+        result.put("steps", splitByFrameWindows(RouteTimeline.fromTimes(route.shapeLatLon(), route.times()), frames));
+        return result;
     }
 
-    private static double haversineMeters(double lat1, double lon1, double lat2, double lon2) {
-        double R = 6371000.0;
-        double dLat = Math.toRadians(lat2 - lat1);
-        double dLon = Math.toRadians(lon2 - lon1);
-        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
-                Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
-                        Math.sin(dLon / 2) * Math.sin(dLon / 2);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        return R * c;
+    /**
+     * Découpe un tracé horodaté en une étape par frame : la frame i couvre
+     * [i * FRAME_SECONDS, (i + 1) * FRAME_SECONDS[ depuis le départ, la dernière
+     * couvrant le reste du trajet.
+     */
+    private static List<Map<String, Object>> splitByFrameWindows(RouteTimeline timeline,
+            List<RainViewerRadarPolygonService.RainPolygonsResult> frames) {
+        List<Map<String, Object>> steps = new ArrayList<>();
+        List<List<Double>> shape = timeline.getShapeLatLon();
+        if (shape.isEmpty()) return steps;
+        List<Double> from = shape.get(0);
+        int k = 0; // dernier point du tracé déjà parcouru
+        for (int i = 0; i < frames.size() && from != null; i++) {
+            boolean isLastFrame = (i == frames.size() - 1);
+
+            // Points de la fenêtre, terminés par la position du véhicule à sa fin
+            List<List<Double>> part = new ArrayList<>();
+            part.add(from);
+            from = null;
+            RouteTimeline.Position end = isLastFrame ? null : timeline.positionAt((i + 1) * FRAME_SECONDS);
+            int last = (end != null && end.shapeIndex() < shape.size() - 1) ? end.shapeIndex() : shape.size() - 1;
+            while (k < last) part.add(shape.get(++k));
+            if (last < shape.size() - 1) {
+                from = end.point();
+                part.add(from);
+            }
+
+            Map<String, Object> outStep = new HashMap<>();
+            outStep.put("rain_polygons", AreaUtils.reverseLonLat(frames.get(i).getSimplifiedPolygons()));
+            outStep.put("route", AreaUtils.reverseLonLat2(toLonLat(part)));
+            steps.add(outStep);
+        }
+
+        return steps;
     }
 
     // Construit un segment de route entre deux points avec (ou sans) polygones
@@ -306,51 +538,112 @@ public class RoutingService {
     // Retourne:
     // segment_duration (sec), segment_distance (m),
     // segment_shape_latlon (List<[lat,lon]>),
-    // segment_route (List<[lon,lat]>), segment_maneuvers (liste brute maneuvers)
+    // segment_route (List<[lon,lat]>), segment_maneuvers (List<ValhallaRouteResponse.Maneuver>),
+    // segment_timeline (RouteTimeline : temps et distances cumulés le long du tracé)
     private Map<String, Object> buildRouteSegment(double sLat, double sLon,
             double eLat, double eLon,
             List<List<List<Double>>> excludePolygons) {
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
+        // Requêtes identiques simultanées : un seul appel Valhalla, chaque appelant reçoit sa copie
+        SegmentKey key = new SegmentKey(sLat, sLon, eLat, eLon, excludePolygons);
+        Map<String, Object> shared = segmentRequests.execute(key,
+                () -> requestRouteSegment(sLat, sLon, eLat, eLon, excludePolygons));
+        return (shared != null) ? new HashMap<>(shared) : null;
+    }
 
+    private Map<String, Object> requestRouteSegment(double sLat, double sLon,
+            double eLat, double eLon,
+            List<List<List<Double>>> excludePolygons) {
+        Map<String, Object> body = routeRequestBody(sLat, sLon, eLat, eLon);
+        if (excludePolygons != null) {
+            body.put("exclude_polygons", excludePolygons); // lon/lat attendu par Valhalla
+        }
+
+        ValhallaRouteResponse api = postRoute(body);
+        return (api != null) ? toSegment(api.trip()) : null;
+    }
+
+    // Itinéraire principal puis, au plus, {@code alternates} alternatives (même format que buildRouteSegment)
+    private List<Map<String, Object>> buildRouteAlternatives(double sLat, double sLon,
+            double eLat, double eLon,
+            int alternates) {
+        Map<String, Object> body = routeRequestBody(sLat, sLon, eLat, eLon);
+        body.put("alternates", alternates);
+
+        List<Map<String, Object>> out = new ArrayList<>();
+        ValhallaRouteResponse api = postRoute(body);
+        if (api == null)
+            return out;
+        Map<String, Object> main = toSegment(api.trip());
+        if (main != null)
+            out.add(main);
+        if (api.alternates() != null) {
+            for (ValhallaRouteResponse.Alternate alternate : api.alternates()) {
+                Map<String, Object> segment = toSegment(alternate.trip());
+                if (segment != null)
+                    out.add(segment);
+            }
+        }
+        return out;
+    }
+
+    private static Map<String, Object> routeRequestBody(double sLat, double sLon, double eLat, double eLon) {
         Map<String, Object> body = new HashMap<>();
         body.put("locations", Arrays.asList(
                 Map.of("lat", sLat, "lon", sLon),
                 Map.of("lat", eLat, "lon", eLon)));
         body.put("costing", "auto");
-        if (excludePolygons != null) {
-            body.put("exclude_polygons", excludePolygons); // lon/lat attendu par Valhalla
+        return body;
+    }
+
+    // Disjoncteur ouvert : échec immédiat au lieu d'attendre le délai de lecture
+    private ValhallaRouteResponse postRoute(Map<String, Object> body) {
+        if (!valhallaBreaker.allowRequest()) {
+            System.err.println("Routing API error: " + valhallaBreaker.openException().getMessage());
+            return null;
         }
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
 
-        RestTemplate rt = new RestTemplate();
-        Map<String, Object> api = null;
         try {
-            api = rt.postForObject(valhallaAPI, new HttpEntity<>(body, headers), Map.class);
+            ValhallaRouteResponse response = valhallaClient.postForObject(valhallaAPI, new HttpEntity<>(body, headers),
+                    ValhallaRouteResponse.class);
+            valhallaBreaker.recordSuccess();
+            return response;
+        } catch (HttpClientErrorException e) {
+            // 4xx (ex. aucun chemin avec ces exclusions) : Valhalla répond, ce n'est pas une panne
+            valhallaBreaker.recordSuccess();
+            System.err.println("Routing API error: " + e.getMessage());
+            return null;
         } catch (Exception e) {
+            valhallaBreaker.recordFailure();
             System.err.println("Routing API error: " + e.getMessage());
-        }
-        if (api == null)
             return null;
+        }
+    }
+
+    // Les données pluie manquent : l'itinéraire est calculé sans évitement, et la réponse le signale
+    private static void rainUnavailable(Map<String, Object> result, Exception e) {
+        System.err.println("Rain data unavailable, routing without rain avoidance: " + e.getMessage());
+        result.put("warning", "Rain data unavailable, route computed without rain avoidance");
+    }
 
-        Map<String, Object> trip = cast(api.get("trip"));
+    private Map<String, Object> toSegment(ValhallaRouteResponse.Trip trip) {
         if (trip == null)
             return null;
 
-        @SuppressWarnings("unchecked")
-        List<Map<String, Object>> legs = (List<Map<String, Object>>) trip.get("legs");
+        List<ValhallaRouteResponse.Leg> legs = trip.legs();
         if (legs == null || legs.isEmpty())
             return null;
 
-        Map<String, Object> leg = legs.get(0);
-        Map<String, Object> summary = cast(leg.get("summary"));
-        double segDuration = toDouble(summary != null ? summary.get("time") : 0.0);
-        double segDistanceMeters = toDouble(summary != null ? summary.get("length") : 0.0) * 1000.0; // km -> m
+        ValhallaRouteResponse.Leg leg = legs.get(0);
+        ValhallaRouteResponse.Summary summary = leg.summary();
+        double segDuration = (summary != null) ? summary.time() : 0.0;
+        double segDistanceMeters = (summary != null ? summary.length() : 0.0) * 1000.0; // km -> m
 
-        String shape = (String) leg.get("shape");
+        String shape = leg.shape();
         List<List<Double>> shapeLatLon = (shape != null) ? decodePolyline(shape, 6) : List.of();
 
-        @SuppressWarnings("unchecked")
-        List<Map<String, Object>> maneuvers = (List<Map<String, Object>>) leg.get("maneuvers");
+        List<ValhallaRouteResponse.Maneuver> maneuvers = leg.maneuvers();
 
         Map<String, Object> out = new HashMap<>();
         out.put("segment_duration", segDuration);
@@ -358,6 +651,26 @@ public class RoutingService {
         out.put("segment_shape_latlon", shapeLatLon);
         out.put("segment_route", toLonLat(shapeLatLon));
         out.put("segment_maneuvers", maneuvers != null ? maneuvers : List.of());
+        out.put("segment_timeline", RouteTimeline.fromManeuvers(shapeLatLon, maneuvers, segDuration, segDistanceMeters));
+        return out;
+    }
+
+    // Même format que buildRouteSegment, calculé par le moteur local (pas de manœuvres)
+    private Map<String, Object> buildLocalSegment(LocalRoutingEngine local,
+            double sLat, double sLon,
+            double eLat, double eLon,
+            List<RadarMask> rainFrames) {
+        LocalRoutingEngine.Route route = local.route(sLat, sLon, eLat, eLon, rainFrames, FRAME_SECONDS, rainPenalty);
+        if (route == null)
+            return null;
+
+        Map<String, Object> out = new HashMap<>();
+        out.put("segment_duration", route.duration());
+        out.put("segment_distance", route.distance());
+        out.put("segment_shape_latlon", route.shapeLatLon());
+        out.put("segment_route", toLonLat(route.shapeLatLon()));
+        out.put("segment_maneuvers", List.of());
+        out.put("segment_timeline", RouteTimeline.fromTimes(route.shapeLatLon(), route.times()));
         return out;
     }
 
@@ -371,11 +684,6 @@ public class RoutingService {
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private static Map<String, Object> cast(Object o) {
-        return (o instanceof Map) ? (Map<String, Object>) o : null;
-    }
-
     // Convertit [ [lat,lon], ... ] -> [ [lon,lat], ... ]
     private static List<List<Double>> toLonLat(List<List<Double>> latLon) {
         List<List<Double>> out = new ArrayList<>(latLon.size());
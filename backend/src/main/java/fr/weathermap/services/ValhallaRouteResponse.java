@@ -0,0 +1,41 @@
+package fr.weathermap.services;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Sous-ensemble typé d'une réponse Valhalla /route.
+ * Des manœuvres, seuls la durée, la longueur et les index de tracé sont lus
+ * (les instructions textuelles et les noms de rues sont sautés).
+ * Les itinéraires alternatifs ne sont présents que si la requête contient "alternates".
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record ValhallaRouteResponse(Trip trip, List<Alternate> alternates) {
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Alternate(Trip trip) {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Trip(List<Leg> legs) {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Leg(Summary summary, String shape, List<Maneuver> maneuvers) {
+    }
+
+    // time en secondes, length en kilomètres
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Summary(double time, double length) {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Maneuver(
+            double time,
+            double length,
+            @JsonProperty("begin_shape_index") int beginShapeIndex,
+            @JsonProperty("end_shape_index") int endShapeIndex) {
+    }
+}
@@ -0,0 +1,87 @@
+package fr.weathermap.utils;
+
+/**
+ * Disjoncteur d'un service amont. Après {@code failureThreshold} échecs consécutifs, il
+ * s'ouvre pendant {@code openMillis} : les appels sont alors refusés immédiatement au
+ * lieu d'attendre l'expiration du délai réseau. Passé ce délai, un seul appel d'essai
+ * est autorisé (demi-ouvert) : son succès referme le disjoncteur, son échec le rouvre.
+ *
+ * Utilisation : {@link #allowRequest()} avant l'appel, puis {@link #recordSuccess()}
+ * ou {@link #recordFailure()} selon son issue.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private long trialStartedAt;
+
+    public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Indique si un appel peut être tenté ; en demi-ouverture, seul le premier appelant l'obtient.
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt < openMillis) return false;
+                state = State.HALF_OPEN;
+                trialStartedAt = System.currentTimeMillis();
+                return true;
+            default:
+                // Appel d'essai déjà en cours ; s'il n'a jamais rendu compte, on en autorise un autre
+                if (System.currentTimeMillis() - trialStartedAt < openMillis) return false;
+                trialStartedAt = System.currentTimeMillis();
+                return true;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            System.err.println("Circuit breaker " + name + " closed");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            System.err.println("Circuit breaker " + name + " open for " + openMillis + " ms after "
+                    + consecutiveFailures + " consecutive failures");
+        }
+    }
+
+    /**
+     * Exception à lever quand {@link #allowRequest()} refuse l'appel.
+     */
+    public CircuitOpenException openException() {
+        return new CircuitOpenException(name);
+    }
+}
@@ -0,0 +1,16 @@
+package fr.weathermap.utils;
+
+import java.io.IOException;
+
+/**
+ * Appel refusé sans être tenté : le disjoncteur du service amont est ouvert.
+ * Sous-classe d'{@link IOException} pour suivre les chemins d'erreur réseau existants.
+ */
+public class CircuitOpenException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public CircuitOpenException(String upstream) {
+        super("Upstream " + upstream + " unavailable (circuit open)");
+    }
+}
@@ -0,0 +1,106 @@
+package fr.weathermap.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Cache mémoire borné (LRU) dont chaque entrée porte sa propre date d'expiration.
+ * Les chargements concurrents d'une même clé absente sont fusionnés : le premier
+ * appelant interroge la source, les suivants attendent le même résultat.
+ *
+ * Les valeurs nulles ne sont pas mises en cache. Les entrées expirées ne sont plus
+ * renvoyées par {@link #getIfPresent} mais restent accessibles via {@link #getStale}.
+ */
+public class ExpiringCache<K, V> {
+
+    private static final class Entry<V> {
+        final V value;
+        final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Map<K, Entry<V>> entries;
+    private final SingleFlight<K, V> loads = new SingleFlight<>();
+
+    public ExpiringCache(int maxEntries) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Valeur encore valide pour {@code key}, ou null.
+     */
+    public V getIfPresent(K key) {
+        synchronized (entries) {
+            Entry<V> e = entries.get(key);
+            if (e == null || e.expiresAt <= System.currentTimeMillis()) return null;
+            return e.value;
+        }
+    }
+
+    /**
+     * Dernière valeur connue pour {@code key}, même expirée (ou null) : les entrées expirées
+     * restent disponibles comme secours jusqu'à leur remplacement ou leur éviction LRU.
+     */
+    public V getStale(K key) {
+        synchronized (entries) {
+            Entry<V> e = entries.get(key);
+            return (e == null) ? null : e.value;
+        }
+    }
+
+    public void put(K key, V value, long expiresAtMillis) {
+        if (value == null) return;
+        synchronized (entries) {
+            entries.put(key, new Entry<>(value, expiresAtMillis));
+        }
+    }
+
+    public void invalidate(K key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Renvoie la valeur en cache ou la charge via {@code loader}.
+     *
+     * @param expiresAtMillis date d'expiration (epoch ms) appliquée à une valeur nouvellement chargée
+     */
+    public V get(K key, long expiresAtMillis, Callable<V> loader) {
+        V cached = getIfPresent(key);
+        if (cached != null) return cached;
+
+        return loads.execute(key, () -> {
+            // Une autre requête a pu remplir le cache entre-temps
+            V value = getIfPresent(key);
+            if (value == null) {
+                value = loader.call();
+                put(key, value, expiresAtMillis);
+            }
+            return value;
+        });
+    }
+
+    /**
+     * Prochaine frontière d'une cadence alignée sur l'epoch (ex. quart d'heure, heure pleine).
+     */
+    public static long nextBoundary(long nowMillis, long cadenceMillis) {
+        return (nowMillis / cadenceMillis + 1) * cadenceMillis;
+    }
+}
@@ -0,0 +1,121 @@
+package fr.weathermap.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class GeoUtils {
+
+    public static final double EARTH_RADIUS_METERS = 6371000.0;
+
+    public static double haversineMeters(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+                Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
+                        Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+        return EARTH_RADIUS_METERS * c;
+    }
+
+    /**
+     * Distances cumulées le long d'une polyligne [lat,lon] (cum[0] = 0).
+     */
+    public static double[] cumulativeDistances(List<List<Double>> shapeLatLon) {
+        double[] cum = new double[shapeLatLon.size()];
+        for (int i = 1; i < cum.length; i++) {
+            List<Double> a = shapeLatLon.get(i - 1);
+            List<Double> b = shapeLatLon.get(i);
+            cum[i] = cum[i - 1] + haversineMeters(a.get(0), a.get(1), b.get(0), b.get(1));
+        }
+        return cum;
+    }
+
+    /**
+     * Échantillonne {@code count} points [lat,lon] régulièrement espacés (en distance)
+     * le long d'une polyligne, extrémités comprises.
+     */
+    public static List<List<Double>> samplePolyline(List<List<Double>> shapeLatLon, int count) {
+        List<List<Double>> out = new ArrayList<>();
+        if (shapeLatLon.isEmpty() || count <= 0) return out;
+        if (shapeLatLon.size() == 1 || count == 1) {
+            out.add(shapeLatLon.get(0));
+            return out;
+        }
+        double[] cum = cumulativeDistances(shapeLatLon);
+        double total = cum[cum.length - 1];
+        int seg = 0;
+        for (int k = 0; k < count; k++) {
+            double target = total * k / (count - 1);
+            while (seg < cum.length - 2 && cum[seg + 1] < target) seg++;
+            double len = cum[seg + 1] - cum[seg];
+            double ratio = (len <= 0) ? 0 : (target - cum[seg]) / len;
+            if (ratio > 1) ratio = 1;
+            List<Double> a = shapeLatLon.get(seg);
+            List<Double> b = shapeLatLon.get(seg + 1);
+            out.add(List.of(a.get(0) + (b.get(0) - a.get(0)) * ratio,
+                    a.get(1) + (b.get(1) - a.get(1)) * ratio));
+        }
+        return out;
+    }
+
+    /**
+     * Projette un point sur une polyligne [lat,lon] (approximation plane locale par segment).
+     *
+     * @param cum distances cumulées de la polyligne (voir {@link #cumulativeDistances})
+     * @return {distance le long du tracé (m), distance au tracé (m)}
+     */
+    public static double[] projectOnPolyline(List<List<Double>> shapeLatLon, double[] cum, double lat, double lon) {
+        if (shapeLatLon.size() == 1) {
+            List<Double> p = shapeLatLon.get(0);
+            return new double[]{0.0, haversineMeters(lat, lon, p.get(0), p.get(1))};
+        }
+        double bestAlong = 0.0;
+        double bestOffset = Double.MAX_VALUE;
+        for (int i = 0; i + 1 < shapeLatLon.size(); i++) {
+            List<Double> a = shapeLatLon.get(i);
+            List<Double> b = shapeLatLon.get(i + 1);
+            double cosLat = Math.cos(Math.toRadians(a.get(0)));
+            double bx = Math.toRadians(b.get(1) - a.get(1)) * cosLat * EARTH_RADIUS_METERS;
+            double by = Math.toRadians(b.get(0) - a.get(0)) * EARTH_RADIUS_METERS;
+            double px = Math.toRadians(lon - a.get(1)) * cosLat * EARTH_RADIUS_METERS;
+            double py = Math.toRadians(lat - a.get(0)) * EARTH_RADIUS_METERS;
+            double len2 = bx * bx + by * by;
+            double t = (len2 == 0) ? 0 : Math.max(0, Math.min(1, (px * bx + py * by) / len2));
+            double dx = px - t * bx;
+            double dy = py - t * by;
+            double offset = Math.sqrt(dx * dx + dy * dy);
+            if (offset < bestOffset) {
+                bestOffset = offset;
+                bestAlong = cum[i] + t * (cum[i + 1] - cum[i]);
+            }
+        }
+        return new double[]{bestAlong, bestOffset};
+    }
+
+    /**
+     * Insère des points intermédiaires pour que deux points consécutifs soient
+     * séparés d'au plus {@code maxSpacingMeters}.
+     *
+     * @throws IllegalArgumentException si {@code maxSpacingMeters} n'est pas strictement positif
+     */
+    public static List<List<Double>> densify(List<List<Double>> shapeLatLon, double maxSpacingMeters) {
+        if (!(maxSpacingMeters > 0)) {
+            throw new IllegalArgumentException("Espacement maximal invalide : " + maxSpacingMeters);
+        }
+        List<List<Double>> out = new ArrayList<>();
+        if (shapeLatLon.isEmpty()) return out;
+        out.add(shapeLatLon.get(0));
+        for (int i = 1; i < shapeLatLon.size(); i++) {
+            List<Double> a = shapeLatLon.get(i - 1);
+            List<Double> b = shapeLatLon.get(i);
+            double len = haversineMeters(a.get(0), a.get(1), b.get(0), b.get(1));
+            int steps = (int) Math.ceil(len / maxSpacingMeters);
+            for (int k = 1; k < steps; k++) {
+                double t = (double) k / steps;
+                out.add(List.of(a.get(0) + (b.get(0) - a.get(0)) * t, a.get(1) + (b.get(1) - a.get(1)) * t));
+            }
+            out.add(b);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,104 @@
+package fr.weathermap.utils;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Encodage geohash (base 32) et recouvrement d'une bounding box par des cellules.
+ */
+public class Geohash {
+
+    private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+
+    public static String encode(double lat, double lon, int precision) {
+        double latMin = -90, latMax = 90;
+        double lonMin = -180, lonMax = 180;
+        StringBuilder hash = new StringBuilder(precision);
+        boolean evenBit = true; // les bits pairs codent la longitude
+        int bit = 0;
+        int ch = 0;
+        while (hash.length() < precision) {
+            if (evenBit) {
+                double mid = (lonMin + lonMax) / 2;
+                if (lon >= mid) {
+                    ch = (ch << 1) | 1;
+                    lonMin = mid;
+                } else {
+                    ch = ch << 1;
+                    lonMax = mid;
+                }
+            } else {
+                double mid = (latMin + latMax) / 2;
+                if (lat >= mid) {
+                    ch = (ch << 1) | 1;
+                    latMin = mid;
+                } else {
+                    ch = ch << 1;
+                    latMax = mid;
+                }
+            }
+            evenBit = !evenBit;
+            if (++bit == 5) {
+                hash.append(BASE32.charAt(ch));
+                bit = 0;
+                ch = 0;
+            }
+        }
+        return hash.toString();
+    }
+
+    /**
+     * @return {latMin, lonMin, latMax, lonMax} de la cellule
+     */
+    public static double[] bounds(String hash) {
+        double latMin = -90, latMax = 90;
+        double lonMin = -180, lonMax = 180;
+        boolean evenBit = true;
+        for (int i = 0; i < hash.length(); i++) {
+            int idx = BASE32.indexOf(hash.charAt(i));
+            if (idx < 0) throw new IllegalArgumentException("Geohash invalide: " + hash);
+            for (int n = 4; n >= 0; n--) {
+                int bitN = (idx >> n) & 1;
+                if (evenBit) {
+                    double mid = (lonMin + lonMax) / 2;
+                    if (bitN == 1) lonMin = mid; else lonMax = mid;
+                } else {
+                    double mid = (latMin + latMax) / 2;
+                    if (bitN == 1) latMin = mid; else latMax = mid;
+                }
+                evenBit = !evenBit;
+            }
+        }
+        return new double[]{latMin, lonMin, latMax, lonMax};
+    }
+
+    /**
+     * Cellules de précision {@code precision} qui recouvrent la bounding box.
+     */
+    public static Set<String> cover(double latMin, double lonMin, double latMax, double lonMax, int precision) {
+        int bits = 5 * precision;
+        double cellLat = 180.0 / (1L << (bits / 2));
+        double cellLon = 360.0 / (1L << ((bits + 1) / 2));
+        latMin = clamp(latMin, -90, 89.999999);
+        latMax = clamp(latMax, -90, 89.999999);
+        lonMin = clamp(lonMin, -180, 179.999999);
+        lonMax = clamp(lonMax, -180, 179.999999);
+
+        // Un pas égal à la taille d'une cellule ne peut sauter aucune cellule
+        Set<String> cells = new LinkedHashSet<>();
+        for (double lat = latMin; ; lat += cellLat) {
+            double la = Math.min(lat, latMax);
+            for (double lon = lonMin; ; lon += cellLon) {
+                double lo = Math.min(lon, lonMax);
+                cells.add(encode(la, lo, precision));
+                if (lo >= lonMax) break;
+            }
+            if (la >= latMax) break;
+        }
+        return cells;
+    }
+
+    private static double clamp(double v, double min, double max) {
+        return Math.max(min, Math.min(max, v));
+    }
+}
@@ -0,0 +1,200 @@
+package fr.weathermap.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodeur minimal de tuiles vectorielles Mapbox (MVT 2.1, protobuf écrit à la main) :
+ * une couche de polygones dont tous les objets portent les mêmes attributs entiers.
+ *
+ * Les anneaux sont donnés en coordonnées de tuile entières (y vers le bas), extérieurs
+ * d'aire signée positive et trous d'aire négative, comme l'exige la spécification.
+ * Chaque trou est rattaché à l'extérieur le plus petit qui le contient ; chaque
+ * extérieur et ses trous forment un objet.
+ */
+public final class MvtEncoder {
+
+    public static final int EXTENT = 4096;
+
+    public static final String CONTENT_TYPE = "application/vnd.mapbox-vector-tile";
+
+    private static final int GEOM_POLYGON = 3;
+    private static final int CMD_MOVE_TO = 1;
+    private static final int CMD_LINE_TO = 2;
+    private static final int CMD_CLOSE_PATH = 7;
+
+    private MvtEncoder() {
+    }
+
+    /**
+     * @param rings      anneaux [x, y] (premier point non répété en fin d'anneau)
+     * @param scale      facteur appliqué aux coordonnées (ex. 16 pour des pixels d'une tuile 256 vers l'étendue 4096)
+     * @param properties attributs communs à tous les objets
+     * @return la tuile encodée ; une couche sans objet si aucun anneau
+     */
+    public static byte[] polygonTile(String layerName, List<List<int[]>> rings, int scale, Map<String, Long> properties) {
+        List<int[][]> exteriors = new ArrayList<>();
+        List<Long> exteriorAreas = new ArrayList<>();
+        List<int[][]> holes = new ArrayList<>();
+        for (List<int[]> ring : rings) {
+            int[][] pts = ring.toArray(new int[0][]);
+            long area = doubleArea(pts);
+            if (area > 0) {
+                exteriors.add(pts);
+                exteriorAreas.add(area);
+            } else if (area < 0) {
+                holes.add(pts);
+            }
+        }
+
+        // Rattachement des trous : point d'échantillon au centre d'un pixel plein bordant le trou
+        List<List<int[][]>> holesOf = new ArrayList<>();
+        for (int i = 0; i < exteriors.size(); i++) holesOf.add(new ArrayList<>());
+        for (int[][] hole : holes) {
+            double[] probe = insideProbe(hole);
+            int best = -1;
+            for (int i = 0; i < exteriors.size(); i++) {
+                if ((best < 0 || exteriorAreas.get(i) < exteriorAreas.get(best))
+                        && contains(exteriors.get(i), probe[0], probe[1])) {
+                    best = i;
+                }
+            }
+            if (best >= 0) holesOf.get(best).add(hole);
+        }
+
+        ByteArrayOutputStream layer = new ByteArrayOutputStream();
+        writeVarintField(layer, 15, 2);                 // version
+        writeBytesField(layer, 1, utf8(layerName));     // name
+
+        List<String> keys = new ArrayList<>(properties.keySet());
+        int[] tags = new int[keys.size() * 2];
+        for (int k = 0; k < keys.size(); k++) {
+            tags[2 * k] = k;
+            tags[2 * k + 1] = k;
+        }
+        for (int i = 0; i < exteriors.size(); i++) {
+            ByteArrayOutputStream feature = new ByteArrayOutputStream();
+            writeVarintField(feature, 1, i + 1L);       // id
+            if (tags.length > 0) writeBytesField(feature, 2, packed(tags));
+            writeVarintField(feature, 3, GEOM_POLYGON);
+            writeBytesField(feature, 4, geometry(exteriors.get(i), holesOf.get(i), scale));
+            writeBytesField(layer, 2, feature.toByteArray());
+        }
+        for (String key : keys) {
+            writeBytesField(layer, 3, utf8(key));
+        }
+        for (String key : keys) {
+            ByteArrayOutputStream value = new ByteArrayOutputStream();
+            writeVarintField(value, 5, properties.get(key)); // uint_value
+            writeBytesField(layer, 4, value.toByteArray());
+        }
+        writeVarintField(layer, 5, EXTENT);
+
+        ByteArrayOutputStream tile = new ByteArrayOutputStream();
+        writeBytesField(tile, 3, layer.toByteArray());
+        return tile.toByteArray();
+    }
+
+    /* ==================== GÉOMÉTRIE ==================== */
+
+    private static byte[] geometry(int[][] exterior, List<int[][]> holes, int scale) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int[] cursor = new int[2];
+        writeRing(out, exterior, scale, cursor);
+        for (int[][] hole : holes) writeRing(out, hole, scale, cursor);
+        return out.toByteArray();
+    }
+
+    private static void writeRing(ByteArrayOutputStream out, int[][] ring, int scale, int[] cursor) {
+        writeVarint(out, command(CMD_MOVE_TO, 1));
+        moveCursor(out, ring[0], scale, cursor);
+        writeVarint(out, command(CMD_LINE_TO, ring.length - 1));
+        for (int i = 1; i < ring.length; i++) moveCursor(out, ring[i], scale, cursor);
+        writeVarint(out, command(CMD_CLOSE_PATH, 1));
+    }
+
+    private static void moveCursor(ByteArrayOutputStream out, int[] p, int scale, int[] cursor) {
+        int x = p[0] * scale;
+        int y = p[1] * scale;
+        writeVarint(out, zigzag(x - cursor[0]));
+        writeVarint(out, zigzag(y - cursor[1]));
+        cursor[0] = x;
+        cursor[1] = y;
+    }
+
+    private static int command(int id, int count) {
+        return (id & 0x7) | (count << 3);
+    }
+
+    private static int zigzag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    // Deux fois l'aire signée (formule du géomètre, y vers le bas)
+    private static long doubleArea(int[][] ring) {
+        long sum = 0;
+        for (int i = 0; i < ring.length; i++) {
+            int[] a = ring[i];
+            int[] b = ring[(i + 1) % ring.length];
+            sum += (long) a[0] * b[1] - (long) b[0] * a[1];
+        }
+        return sum;
+    }
+
+    // Centre du pixel plein situé à droite de la première arête du trou (jamais sur un contour)
+    private static double[] insideProbe(int[][] ring) {
+        int[] a = ring[0];
+        int[] b = ring[1];
+        int dx = Integer.signum(b[0] - a[0]);
+        int dy = Integer.signum(b[1] - a[1]);
+        return new double[]{a[0] + 0.5 * dx - 0.5 * dy, a[1] + 0.5 * dy + 0.5 * dx};
+    }
+
+    // Pair-impair (point à coordonnées demi-entières : jamais sur un sommet)
+    private static boolean contains(int[][] ring, double x, double y) {
+        boolean inside = false;
+        for (int i = 0, j = ring.length - 1; i < ring.length; j = i++) {
+            int[] a = ring[i];
+            int[] b = ring[j];
+            if ((a[1] > y) != (b[1] > y)) {
+                double xi = a[0] + (y - a[1]) * (double) (b[0] - a[0]) / (b[1] - a[1]);
+                if (x < xi) inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /* ==================== PROTOBUF ==================== */
+
+    private static void writeVarintField(ByteArrayOutputStream out, int field, long value) {
+        writeVarint(out, (long) field << 3);
+        writeVarint(out, value);
+    }
+
+    private static void writeBytesField(ByteArrayOutputStream out, int field, byte[] bytes) {
+        writeVarint(out, ((long) field << 3) | 2);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static byte[] packed(int[] values) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int v : values) writeVarint(out, v);
+        return out.toByteArray();
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
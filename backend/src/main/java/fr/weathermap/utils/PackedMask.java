@@ -0,0 +1,322 @@
+package fr.weathermap.utils;
+
+import java.util.Arrays;
+
+/**
+ * Masque binaire compact (1 bit par pixel, lignes alignées sur des mots de 64 bits).
+ * Fournit les opérations morphologiques utilisées avant l'extraction des contours :
+ * fermeture (dilatation puis érosion) et suppression des petites composantes connexes.
+ *
+ * Les bits de bourrage au-delà de {@code width} sont toujours maintenus à 0.
+ */
+public class PackedMask {
+
+    private final int width;
+    private final int height;
+    private final int wordsPerRow;
+    private long[] bits;
+
+    public PackedMask(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.wordsPerRow = (width + 63) >>> 6;
+        this.bits = new long[wordsPerRow * height];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public boolean get(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) return false;
+        return (bits[y * wordsPerRow + (x >>> 6)] & (1L << (x & 63))) != 0;
+    }
+
+    public void set(int x, int y) {
+        bits[y * wordsPerRow + (x >>> 6)] |= 1L << (x & 63);
+    }
+
+    public void clear(int x, int y) {
+        bits[y * wordsPerRow + (x >>> 6)] &= ~(1L << (x & 63));
+    }
+
+    public boolean isEmpty() {
+        for (long w : bits) {
+            if (w != 0) return false;
+        }
+        return true;
+    }
+
+    public int cardinality() {
+        int c = 0;
+        for (long w : bits) c += Long.bitCount(w);
+        return c;
+    }
+
+    public PackedMask copy() {
+        PackedMask c = new PackedMask(width, height);
+        System.arraycopy(bits, 0, c.bits, 0, bits.length);
+        return c;
+    }
+
+    /**
+     * Copie de la fenêtre [x, x + w[ x [y, y + h[, qui devient le pixel (0, 0) du résultat.
+     *
+     * @throws IllegalArgumentException si la fenêtre sort du masque
+     */
+    public PackedMask crop(int x, int y, int w, int h) {
+        if (x < 0 || y < 0 || w < 0 || h < 0 || x + w > width || y + h > height) {
+            throw new IllegalArgumentException("Crop out of bounds: " + x + "," + y + " " + w + "x" + h
+                    + " in " + width + "x" + height);
+        }
+        PackedMask c = new PackedMask(w, h);
+        int shift = x & 63;
+        long lastWordMask = ((w & 63) == 0) ? -1L : (1L << (w & 63)) - 1;
+        for (int row = 0; row < h; row++) {
+            int src = (y + row) * wordsPerRow + (x >>> 6);
+            int dst = row * c.wordsPerRow;
+            for (int k = 0; k < c.wordsPerRow; k++) {
+                long v = bits[src + k] >>> shift;
+                if (shift != 0 && src + k + 1 < (y + row + 1) * wordsPerRow) {
+                    v |= bits[src + k + 1] << (64 - shift);
+                }
+                c.bits[dst + k] = v;
+            }
+            if (c.wordsPerRow > 0) c.bits[dst + c.wordsPerRow - 1] &= lastWordMask;
+        }
+        return c;
+    }
+
+    /* ==================== SÉQUENCES (RUNS) ==================== */
+
+    /**
+     * Séquences horizontales de pixels allumés, ligne par ligne, sous forme de triplets
+     * plats [y, x, longueur, y, x, longueur, ...].
+     */
+    public int[] runs() {
+        return runsAndNot(null);
+    }
+
+    /**
+     * Séquences des pixels allumés dans ce masque et éteints dans {@code other}
+     * (null = masque vide), au même format que {@link #runs()}. Avec deux frames
+     * successives, {@code cur.runsAndNot(prev)} donne les pixels apparus et
+     * {@code prev.runsAndNot(cur)} ceux qui ont disparu.
+     */
+    public int[] runsAndNot(PackedMask other) {
+        if (other != null && (other.width != width || other.height != height)) {
+            throw new IllegalArgumentException("Mask size mismatch: " + width + "x" + height
+                    + " vs " + other.width + "x" + other.height);
+        }
+        int[] out = new int[48];
+        int n = 0;
+        long[] row = new long[wordsPerRow];
+        for (int y = 0; y < height; y++) {
+            int off = y * wordsPerRow;
+            boolean any = false;
+            for (int w = 0; w < wordsPerRow; w++) {
+                long v = bits[off + w];
+                if (other != null) v &= ~other.bits[off + w];
+                row[w] = v;
+                any |= v != 0;
+            }
+            if (!any) continue;
+
+            int x = 0;
+            while (x < width) {
+                int start = nextBit(row, x, true);
+                if (start >= width) break;
+                int end = Math.min(width, nextBit(row, start, false));
+                if (n + 3 > out.length) out = grow(out);
+                out[n++] = y;
+                out[n++] = start;
+                out[n++] = end - start;
+                x = end;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    // Premier pixel >= from valant "set" dans la ligne (wordsPerRow * 64 si aucun)
+    private int nextBit(long[] row, int from, boolean set) {
+        int w = from >>> 6;
+        if (w >= row.length) return row.length << 6;
+        long v = (set ? row[w] : ~row[w]) & (-1L << (from & 63));
+        while (v == 0) {
+            if (++w == row.length) return row.length << 6;
+            v = set ? row[w] : ~row[w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(v);
+    }
+
+    /**
+     * Allume ({@code value} = true) ou éteint les séquences données au format de {@link #runs()}.
+     */
+    public void applyRuns(int[] runs, boolean value) {
+        for (int i = 0; i + 2 < runs.length; i += 3) {
+            int y = runs[i];
+            int x = runs[i + 1];
+            int end = x + runs[i + 2];
+            if (y < 0 || y >= height || x < 0 || end > width) {
+                throw new IllegalArgumentException("Run out of bounds: y=" + y + " x=" + x + " length=" + runs[i + 2]);
+            }
+            int off = y * wordsPerRow;
+            while (x < end) {
+                int w = x >>> 6;
+                int hi = Math.min(end, (w + 1) << 6);
+                int len = hi - x;
+                long m = (len == 64) ? -1L : ((1L << len) - 1) << (x & 63);
+                if (value) bits[off + w] |= m;
+                else bits[off + w] &= ~m;
+                x = hi;
+            }
+        }
+    }
+
+    /* ==================== MORPHOLOGIE ==================== */
+
+    /**
+     * Fermeture morphologique avec un élément structurant carré de rayon {@code radius}
+     * (dilatation puis érosion). Bouche les trous et les fissures de moins de 2*radius pixels.
+     * Les bords du masque sont considérés comme pleins pendant l'érosion pour ne pas
+     * ronger les zones qui touchent la bordure.
+     */
+    public void close(int radius) {
+        if (radius <= 0) return;
+        for (int i = 0; i < radius; i++) bits = step(bits, false);
+        for (int i = 0; i < radius; i++) bits = step(bits, true);
+    }
+
+    // Une passe 3x3 : OR (dilatation) ou AND (érosion), séparée en horizontal puis vertical
+    private long[] step(long[] src, boolean erode) {
+        long[] horiz = new long[src.length];
+        long[] left = new long[wordsPerRow];
+        long[] right = new long[wordsPerRow];
+        for (int y = 0; y < height; y++) {
+            int off = y * wordsPerRow;
+            shiftFromLeft(src, off, left, erode);
+            shiftFromRight(src, off, right, erode);
+            for (int w = 0; w < wordsPerRow; w++) {
+                long c = src[off + w];
+                horiz[off + w] = erode ? (c & left[w] & right[w]) : (c | left[w] | right[w]);
+            }
+        }
+
+        long[] out = new long[src.length];
+        for (int y = 0; y < height; y++) {
+            int off = y * wordsPerRow;
+            int up = (y > 0) ? off - wordsPerRow : -1;
+            int down = (y < height - 1) ? off + wordsPerRow : -1;
+            for (int w = 0; w < wordsPerRow; w++) {
+                long c = horiz[off + w];
+                if (erode) {
+                    if (up >= 0) c &= horiz[up + w];
+                    if (down >= 0) c &= horiz[down + w];
+                } else {
+                    if (up >= 0) c |= horiz[up + w];
+                    if (down >= 0) c |= horiz[down + w];
+                }
+                out[off + w] = c;
+            }
+            clearPadding(out, off);
+        }
+        return out;
+    }
+
+    // dst[x] = src[x-1] ; le pixel 0 reçoit "fill"
+    private void shiftFromLeft(long[] src, int off, long[] dst, boolean fill) {
+        for (int w = 0; w < wordsPerRow; w++) {
+            long v = src[off + w] << 1;
+            if (w > 0) v |= src[off + w - 1] >>> 63;
+            dst[w] = v;
+        }
+        if (fill) dst[0] |= 1L;
+    }
+
+    // dst[x] = src[x+1] ; le pixel width-1 reçoit "fill"
+    private void shiftFromRight(long[] src, int off, long[] dst, boolean fill) {
+        for (int w = 0; w < wordsPerRow; w++) {
+            long v = src[off + w] >>> 1;
+            if (w + 1 < wordsPerRow) v |= src[off + w + 1] << 63;
+            dst[w] = v;
+        }
+        if (fill) dst[(width - 1) >>> 6] |= 1L << ((width - 1) & 63);
+    }
+
+    private void clearPadding(long[] words, int off) {
+        int rem = width & 63;
+        if (rem != 0) words[off + wordsPerRow - 1] &= (1L << rem) - 1;
+    }
+
+    /* ==================== COMPOSANTES CONNEXES ==================== */
+
+    /**
+     * Supprime les composantes 4-connexes dont la surface est inférieure à {@code minArea} pixels.
+     * La 4-connexité correspond à celle du traçage de contours : chaque composante conservée
+     * donne exactement un anneau extérieur.
+     *
+     * @return le nombre de composantes supprimées
+     */
+    public int removeSmallComponents(int minArea) {
+        if (minArea <= 1) return 0;
+        long[] visited = new long[bits.length];
+        int[] stack = new int[256];
+        int[] component = new int[256];
+        int removed = 0;
+
+        for (int wi = 0; wi < bits.length; wi++) {
+            long pending = bits[wi] & ~visited[wi];
+            while (pending != 0) {
+                int bit = Long.numberOfTrailingZeros(pending);
+                pending &= pending - 1;
+                int y = wi / wordsPerRow;
+                int x = ((wi - y * wordsPerRow) << 6) + bit;
+                if ((visited[wi] & (1L << bit)) != 0) continue;
+
+                // Parcours en profondeur itératif, pixels encodés en y*width+x
+                int size = 0;
+                int sp = 0;
+                stack[sp++] = y * width + x;
+                visited[wi] |= 1L << bit;
+                while (sp > 0) {
+                    int p = stack[--sp];
+                    if (size == component.length) component = grow(component);
+                    component[size++] = p;
+                    int py = p / width;
+                    int px = p - py * width;
+                    for (int d = 0; d < 4; d++) {
+                        int nx = px + (d == 0 ? 1 : d == 1 ? -1 : 0);
+                        int ny = py + (d == 2 ? 1 : d == 3 ? -1 : 0);
+                        if (nx < 0 || ny < 0 || nx >= width || ny >= height) continue;
+                        int nw = ny * wordsPerRow + (nx >>> 6);
+                        long nm = 1L << (nx & 63);
+                        if ((bits[nw] & nm) == 0 || (visited[nw] & nm) != 0) continue;
+                        visited[nw] |= nm;
+                        if (sp == stack.length) stack = grow(stack);
+                        stack[sp++] = ny * width + nx;
+                    }
+                }
+
+                if (size < minArea) {
+                    for (int i = 0; i < size; i++) {
+                        int p = component[i];
+                        int py = p / width;
+                        clear(p - py * width, py);
+                    }
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    private static int[] grow(int[] a) {
+        int[] b = new int[a.length * 2];
+        System.arraycopy(a, 0, b, 0, a.length);
+        return b;
+    }
+}
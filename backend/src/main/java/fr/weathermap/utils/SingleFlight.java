@@ -0,0 +1,71 @@
+package fr.weathermap.utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Fusion des calculs identiques simultanés : le premier appelant d'une clé exécute le
+ * calcul, les appelants concurrents de la même clé attendent son résultat au lieu de le
+ * refaire. Rien n'est conservé une fois le calcul terminé (ce n'est pas un cache).
+ *
+ * Les exceptions du calcul sont transmises à tous les appelants, en exceptions non
+ * vérifiées ({@link IOException} devient {@link UncheckedIOException}). Seule exception :
+ * si le calcul échoue parce que le thread qui l'exécutait a été interrompu, les appelants
+ * en attente ne sont pas pénalisés et relancent le calcul eux-mêmes.
+ */
+public class SingleFlight<K, V> {
+
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Résultat de {@code loader} pour {@code key}, éventuellement calculé par un appel concurrent.
+     * Le résultat (y compris null) est partagé tel quel entre les appelants.
+     */
+    public V execute(K key, Callable<V> loader) {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> existing;
+        while ((existing = inFlight.putIfAbsent(key, mine)) != null) {
+            try {
+                return existing.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrompu en attendant un chargement concurrent", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                // Interruption propre au thread du calcul : on retente (éventuellement comme exécutant)
+                if (cause instanceof InterruptedException) continue;
+                throw propagate(cause instanceof Exception ? (Exception) cause : new IllegalStateException(cause));
+            }
+        }
+
+        try {
+            V value = loader.call();
+            mine.complete(value);
+            return value;
+        } catch (Exception e) {
+            mine.completeExceptionally(e);
+            throw propagate(e);
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /**
+     * Nombre de calculs en cours.
+     */
+    public int size() {
+        return inFlight.size();
+    }
+
+    private static RuntimeException propagate(Exception e) {
+        if (e instanceof RuntimeException) return (RuntimeException) e;
+        if (e instanceof IOException) return new UncheckedIOException((IOException) e);
+        if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+        return new IllegalStateException(e);
+    }
+}
@@ -0,0 +1,72 @@
+package fr.weathermap.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestTemplate;
+
+class ForecastGridServiceTest {
+
+    // Grille 2 x 2 (pas de 0.5°) sur [48, 48.5] x [2, 2.5]
+    private static final String REGION = "48,2,48.5,2.5";
+
+    @Test
+    void currentInterpolatesCompleteGrid() {
+        ForecastGridService grid = gridService(null);
+
+        OpenMeteoForecast forecast = grid.current(48.25, 2.25);
+        assertNotNull(forecast);
+        assertEquals(15.0, forecast.current().temperature());
+        assertEquals(0.0, forecast.current().precipitation());
+    }
+
+    @Test
+    void currentReturnsNullWhenANodeValueIsMissing() {
+        // Température absente au noeud (48, 2) : pas de fausse mesure à 0, repli sur Open-Meteo
+        ForecastGridService grid = gridService(0);
+
+        assertNull(grid.current(48.25, 2.25));
+    }
+
+    @Test
+    void currentReturnsNullOutsideGrid() {
+        assertNull(gridService(null).current(45.0, 2.25));
+    }
+
+    // missingTemperatureNode : noeud dont la température est null (null = aucun)
+    private static ForecastGridService gridService(Integer missingTemperatureNode) {
+        OpenMeteoService openMeteo = new OpenMeteoService(new RestTemplate(), 10) {
+            @Override
+            public List<OpenMeteoForecast> fetchMulti(List<double[]> coords, String query) {
+                List<OpenMeteoForecast> nodes = new ArrayList<>(coords.size());
+                for (int i = 0; i < coords.size(); i++) {
+                    Double temperature = (missingTemperatureNode != null && missingTemperatureNode == i) ? null : 15.0;
+                    nodes.add(node(temperature));
+                }
+                return nodes;
+            }
+        };
+        ForecastGridService grid = new ForecastGridService(openMeteo, true, REGION, 0.5, 30);
+        grid.refresh();
+        return grid;
+    }
+
+    private static OpenMeteoForecast node(Double temperature) {
+        OpenMeteoForecast.Current current = new OpenMeteoForecast.Current("2026-01-01T12:00",
+                temperature, 14.0, 80.0, 10.0, 0.0, 0.0, 50.0, 10000.0);
+        List<String> times = new ArrayList<>();
+        List<Double> values = new ArrayList<>();
+        for (int h = 0; h < 24; h++) {
+            times.add(String.format("2026-01-01T%02d:00", h));
+            values.add(1.0);
+        }
+        OpenMeteoForecast.Hourly hourly = new OpenMeteoForecast.Hourly(times, values, values, values);
+        OpenMeteoForecast.Units units = new OpenMeteoForecast.Units("°C", "°C", "%", "km/h", "mm", "mm", "%", "m");
+        return new OpenMeteoForecast(current, units, hourly, units);
+    }
+}
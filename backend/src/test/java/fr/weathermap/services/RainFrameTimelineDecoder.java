@@ -0,0 +1,46 @@
+package fr.weathermap.services;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.weathermap.utils.PackedMask;
+
+/**
+ * Décodeur de référence d'une {@link RainFrameTimeline} : reconstruit le masque de
+ * chaque frame, dans l'ordre, comme doit le faire un client.
+ */
+final class RainFrameTimelineDecoder {
+
+    private RainFrameTimelineDecoder() {
+    }
+
+    /**
+     * @throws IllegalArgumentException si la timeline ne commence pas par une frame clé
+     *                                  ou si une séquence sort du masque
+     */
+    static List<RadarMask> decode(RainFrameTimeline timeline) {
+        List<RadarMask> masks = new ArrayList<>(timeline.frames().size());
+        RadarMask previous = null;
+        for (RainFrameTimeline.Frame f : timeline.frames()) {
+            RadarMask current;
+            if (f.isKey()) {
+                RainFrameTimeline.Geometry g = f.geometry();
+                PackedMask mask = new PackedMask(g.width(), g.height());
+                if (f.runs() != null) mask.applyRuns(f.runs(), true);
+                current = new RadarMask(mask, g.zoom(), g.xTileMin(), g.yTileMin(), g.tileSize());
+            } else {
+                if (previous == null) {
+                    throw new IllegalArgumentException("Delta frame " + f.frameTime() + " without a preceding key frame");
+                }
+                PackedMask mask = previous.getMask().copy();
+                if (f.removed() != null) mask.applyRuns(f.removed(), false);
+                if (f.added() != null) mask.applyRuns(f.added(), true);
+                current = new RadarMask(mask, previous.getZoom(), previous.getXTileMin(),
+                        previous.getYTileMin(), previous.getTileSize());
+            }
+            masks.add(current);
+            previous = current;
+        }
+        return masks;
+    }
+}
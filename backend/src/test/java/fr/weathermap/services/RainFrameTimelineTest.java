@@ -0,0 +1,125 @@
+package fr.weathermap.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fr.weathermap.services.RainViewerRadarPolygonService.RainPolygonsResult;
+import fr.weathermap.services.RainViewerRadarPolygonService.TimeMode;
+import fr.weathermap.utils.PackedMask;
+
+class RainFrameTimelineTest {
+
+    // Largeurs volontairement non multiples de 64 (dernier mot de chaque ligne incomplet)
+    private static final int WIDTH = 100;
+    private static final int HEIGHT = 37;
+
+    @Test
+    void roundTripRestoresEveryFrameBitForBit() throws Exception {
+        Random random = new Random(42);
+        List<RainPolygonsResult> results = new ArrayList<>();
+        long time = 1_700_000_000L;
+
+        results.add(frame(time, new PackedMask(WIDTH, HEIGHT), 6));          // clé vide
+        PackedMask cloud = randomBlobs(random, WIDTH, HEIGHT);
+        results.add(frame(time += 600, cloud, 6));                            // apparition
+        PackedMask edited = cloud.copy();
+        edited.applyRuns(new int[]{0, 0, WIDTH, HEIGHT - 1, 0, WIDTH}, true); // lignes pleines
+        edited.applyRuns(new int[]{10, 63, 2, 11, 60, 10}, false);           // frontière de mot
+        results.add(frame(time += 600, edited, 6));
+        results.add(frame(time += 600, randomBlobs(random, WIDTH, HEIGHT), 6));
+        results.add(new RainPolygonsResult(List.of(), time += 600, TimeMode.PAST_INDEX)); // sans masque : ignorée
+        results.add(frame(time += 600, new PackedMask(WIDTH, HEIGHT), 6));   // disparition totale
+        results.add(frame(time += 600, randomBlobs(random, 130, 65), 5));    // autre emprise : nouvelle clé
+        results.add(frame(time += 600, randomBlobs(random, 130, 65), 5));
+
+        RainFrameTimeline timeline = RainFrameTimeline.encode(results, 12);
+
+        // Passage par JSON comme pour un client
+        ObjectMapper json = new ObjectMapper();
+        RainFrameTimeline received = json.readValue(json.writeValueAsBytes(timeline), RainFrameTimeline.class);
+        assertEquals(12, received.age());
+
+        List<RadarMask> expected = results.stream().filter(r -> r.mask != null).map(r -> r.mask).toList();
+        List<RadarMask> decoded = RainFrameTimelineDecoder.decode(received);
+        assertEquals(expected.size(), decoded.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSameMask(expected.get(i), decoded.get(i), "frame " + i);
+        }
+
+        // Clés : première frame et changement d'emprise ; deltas ailleurs
+        List<RainFrameTimeline.Frame> frames = received.frames();
+        assertNotNull(frames.get(0).geometry());
+        assertNull(frames.get(1).geometry());
+        assertNull(frames.get(4).geometry());
+        assertNotNull(frames.get(5).geometry());
+        assertNull(frames.get(6).geometry());
+    }
+
+    @Test
+    void identicalFramesProduceEmptyDeltas() {
+        PackedMask mask = randomBlobs(new Random(7), WIDTH, HEIGHT);
+        RainFrameTimeline timeline = RainFrameTimeline.encode(
+                List.of(frame(1L, mask, 6), frame(2L, mask.copy(), 6)), 0);
+
+        RainFrameTimeline.Frame delta = timeline.frames().get(1);
+        assertEquals(0, delta.added().length);
+        assertEquals(0, delta.removed().length);
+        assertSameMask(new RadarMask(mask, 6, 10, 20, 256), RainFrameTimelineDecoder.decode(timeline).get(1), "frame 1");
+    }
+
+    @Test
+    void decodeRejectsDeltaWithoutKeyFrame() {
+        RainFrameTimeline timeline = new RainFrameTimeline(
+                List.of(new RainFrameTimeline.Frame(1L, null, null, new int[0], new int[0])), 0);
+        assertThrows(IllegalArgumentException.class, () -> RainFrameTimelineDecoder.decode(timeline));
+    }
+
+    private static RainPolygonsResult frame(long time, PackedMask mask, int zoom) {
+        return new RainPolygonsResult(List.of(), time, TimeMode.PAST_INDEX, new RadarMask(mask, zoom, 10, 20, 256));
+    }
+
+    // Quelques disques aléatoires, dont certains coupés par les bords
+    private static PackedMask randomBlobs(Random random, int width, int height) {
+        PackedMask mask = new PackedMask(width, height);
+        for (int b = 0; b < 6; b++) {
+            int cx = random.nextInt(width);
+            int cy = random.nextInt(height);
+            int r = 2 + random.nextInt(10);
+            for (int y = Math.max(0, cy - r); y <= Math.min(height - 1, cy + r); y++) {
+                for (int x = Math.max(0, cx - r); x <= Math.min(width - 1, cx + r); x++) {
+                    if ((x - cx) * (x - cx) + (y - cy) * (y - cy) <= r * r) mask.set(x, y);
+                }
+            }
+        }
+        return mask;
+    }
+
+    private static void assertSameMask(RadarMask expected, RadarMask actual, String label) {
+        assertEquals(expected.getZoom(), actual.getZoom(), label);
+        assertEquals(expected.getXTileMin(), actual.getXTileMin(), label);
+        assertEquals(expected.getYTileMin(), actual.getYTileMin(), label);
+        assertEquals(expected.getTileSize(), actual.getTileSize(), label);
+        PackedMask e = expected.getMask();
+        PackedMask a = actual.getMask();
+        assertEquals(e.getWidth(), a.getWidth(), label);
+        assertEquals(e.getHeight(), a.getHeight(), label);
+        assertEquals(e.cardinality(), a.cardinality(), label);
+        for (int y = 0; y < e.getHeight(); y++) {
+            for (int x = 0; x < e.getWidth(); x++) {
+                assertEquals(e.get(x, y), a.get(x, y), label + " (" + x + ", " + y + ")");
+            }
+        }
+        assertTrue(a.runsAndNot(e).length == 0 && e.runsAndNot(a).length == 0, label);
+    }
+}